@@ -0,0 +1,68 @@
+package it.alerighi.spider;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Fixed positions of the benchmarks: numbered deals played for a fixed number of
+ * moves with a deterministic policy, so they are the same on every run.
+ *
+ * @author Alessandro Righi
+ */
+final class BenchmarkPositions {
+
+    static final long GAME_NUMBER = 123456;
+
+    private BenchmarkPositions() {
+    }
+
+    /**
+     * Number of moves played to reach a stage of the game
+     *
+     * @param stage "early", "mid" or "late"
+     * @return number of moves
+     */
+    static int movesOfStage(String stage) {
+        switch (stage) {
+            case "early":
+                return 0;
+            case "mid":
+                return 60;
+            case "late":
+                return 160;
+            default:
+                throw new IllegalArgumentException("Unknown stage " + stage);
+        }
+    }
+
+    /**
+     * Play a numbered game: the first possible move that leads to a new position, or
+     * a deal if there are none, until the number of moves or the end of the game
+     *
+     * @param numberOfSuits number of suits
+     * @param stage         stage of the game, see {@link #movesOfStage(String)}
+     * @return the game in the position reached
+     */
+    static Game play(int numberOfSuits, String stage) {
+        Game game = new Game();
+        game.newGame(numberOfSuits, GAME_NUMBER);
+        int[] moves = new int[Game.MAX_MOVES];
+        Set<Long> seen = new HashSet<>();
+        seen.add(game.getHash());
+
+        for (int i = movesOfStage(stage); i > 0 && !game.isEnded(); i--) {
+            int n = game.generateMoves(moves);
+            boolean moved = false;
+            for (int j = 0; j < n && !moved; j++) {
+                game.doMove(moves[j]);
+                if (seen.add(game.getHash()))
+                    moved = true;
+                else
+                    game.undoLastMove();
+            }
+            if (!moved && !game.dealCards())
+                break;
+        }
+        return new Game(game);
+    }
+}
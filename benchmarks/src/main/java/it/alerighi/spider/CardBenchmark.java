@@ -0,0 +1,48 @@
+package it.alerighi.spider;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the drawing of the cards from the {@link CardImages} cache: a full
+ * board of 104 face up cards. Runs headless.
+ *
+ * @author Alessandro Righi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class CardBenchmark {
+
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        CardImages.await();
+        CardImages.validate(null);
+        image = new BufferedImage(1500, 800, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage drawFullBoard() {
+        for (int i = 0; i < Position.NUMBER_OF_CARDS; i++) {
+            int column = i % Position.NUMBER_OF_COLUMNS;
+            int row = i / Position.NUMBER_OF_COLUMNS;
+            Card.paint(graphics, (i % 52) | Position.FACE_UP, 45 + column * 145, 20 + row * Deck.SPACE_BETWEEN_CARDS);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,55 @@
+package it.alerighi.spider;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the deck views used by the game panel while dragging cards
+ *
+ * @author Alessandro Righi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeckBenchmark {
+
+    @Param({"early", "mid", "late"})
+    public String stage;
+
+    private Deck deck;
+    private int index;
+
+    /**
+     * Take the longest column of the position, the subdeck is its face up cards
+     */
+    @Setup
+    public void setup() {
+        Position position = new Position(BenchmarkPositions.play(4, stage).getPosition());
+        int column = 0;
+        for (int i = 1; i < Position.NUMBER_OF_COLUMNS; i++) {
+            if (position.numberOfCards(i) > position.numberOfCards(column))
+                column = i;
+        }
+        deck = new Deck(position, column);
+        index = position.numberOfCards(column) - Math.max(1, position.getRunLength(column));
+    }
+
+    @Benchmark
+    public boolean isOrderdered() {
+        return deck.isOrderdered(index);
+    }
+
+    /**
+     * Pick up of a subdeck and drop back on the same deck
+     */
+    @Benchmark
+    public int getSubDeckAndAppend() {
+        Deck subDeck = deck.getSubDeck(index, true);
+        deck.appendDeck(subDeck);
+        return deck.numberOfCards();
+    }
+}
@@ -0,0 +1,123 @@
+package it.alerighi.spider;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the game engine: move generation, moves and undo, dealing, on
+ * positions at the start, in the middle and at the end of a fixed game.
+ *
+ * @author Alessandro Righi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+    @Param({"1", "4"})
+    public int suits;
+
+    @Param({"early", "mid", "late"})
+    public String stage;
+
+    private Game game;
+    private int[] moves;
+    private int firstMove;
+    private byte[] deck;
+    private Position dealt;
+    private long gameNumber;
+
+    @Setup
+    public void setup() {
+        game = BenchmarkPositions.play(suits, stage);
+        moves = new int[Game.MAX_MOVES];
+        firstMove = game.generateMoves(moves) > 0 ? moves[0] : Game.DEAL_CARDS;
+        deck = new byte[Position.NUMBER_OF_CARDS];
+        dealt = new Position();
+    }
+
+    /**
+     * List of the possible moves, as used by the hints
+     */
+    @Benchmark
+    public List<Game.MoveDeckMove> getPossibleMoves() {
+        return game.getPossibleMoves();
+    }
+
+    /**
+     * Moves generated again after a move and its undo changed two columns
+     */
+    @Benchmark
+    public int generateMovesAfterMove() {
+        game.doMove(firstMove);
+        game.undoLastMove();
+        return game.generateMoves(moves);
+    }
+
+    /**
+     * Canonical moves generated again after a move and its undo, as used by the searches
+     */
+    @Benchmark
+    public int generateCanonicalMovesAfterMove() {
+        game.doMove(firstMove);
+        game.undoLastMove();
+        return game.generateCanonicalMoves(moves);
+    }
+
+    /**
+     * A move and its undo, the path of every search
+     */
+    @Benchmark
+    public long moveAndUndo() {
+        game.doMove(firstMove);
+        long hash = game.getHash();
+        game.undoLastMove();
+        return hash;
+    }
+
+    /**
+     * A deal and its undo
+     */
+    @Benchmark
+    public long dealAndUndo() {
+        if (!game.dealCards())
+            return 0;
+        long hash = game.getHash();
+        game.undoLastMove();
+        return hash;
+    }
+
+    /**
+     * Copy of a game, as done by the searches for each task or beam position
+     */
+    @Benchmark
+    public Game copyGame() {
+        return new Game(game);
+    }
+
+    /**
+     * Shuffle and deal of a new numbered game
+     */
+    @Benchmark
+    public Position dealNewGame() {
+        DealGenerator.shuffle(suits, gameNumber++, deck);
+        dealt.dealFrom(deck);
+        return dealt;
+    }
+
+    /**
+     * New game of the engine, with its allocations
+     */
+    @Benchmark
+    public void newGame(Blackhole blackhole) {
+        Game newGame = new Game();
+        newGame.newGame(suits, gameNumber++);
+        blackhole.consume(newGame);
+    }
+}
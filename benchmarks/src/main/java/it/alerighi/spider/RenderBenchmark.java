@@ -0,0 +1,114 @@
+package it.alerighi.spider;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the painting of the game panel into an offscreen image, at several
+ * window sizes. Runs headless. Run with -prof gc to get the bytes allocated per frame.
+ *
+ * @author Alessandro Righi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+    /**
+     * height of a run of 12 cards, as dragged
+     */
+    private static final int RUN_HEIGHT = Card.HEIGHT + 11 * Deck.SPACE_BETWEEN_CARDS;
+
+    /**
+     * distance the cards are dragged between two frames
+     */
+    private static final int DRAG_STEP = 8;
+
+    @Param({"1024x640", "1500x800", "2560x1440", "3840x2160"})
+    public String size;
+
+    private GamePanel panel;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private int dragX;
+    private int dragY;
+    private int dragDirection = 1;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        CardImages.await();
+        int width = Integer.parseInt(size.substring(0, size.indexOf('x')));
+        int height = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+        panel = new GamePanel();
+        panel.setSize(width, height);
+        /* the playouts of the estimate would run while the frames are measured */
+        panel.setWinEstimates(false);
+        panel.startNewGame(4, BenchmarkPositions.GAME_NUMBER);
+        panel.flushModel();
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        panel.paint(graphics);
+
+        /* pick up the top card of the first column, in the middle of the panel */
+        dragX = (width - 10 * Card.WIDTH) / 11 + Card.WIDTH / 2;
+        dragY = 20 + 5 * Deck.SPACE_BETWEEN_CARDS_COVERED + Card.HEIGHT / 2;
+        panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_PRESSED, 0, MouseEvent.BUTTON1_DOWN_MASK,
+                dragX, dragY, 1, false, MouseEvent.BUTTON1));
+        panel.paint(graphics);
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    /**
+     * A frame, painted as Swing does: a new graphics context and paintComponent
+     */
+    @Benchmark
+    public BufferedImage paintFrame() {
+        Graphics graphics = image.createGraphics();
+        panel.paint(graphics);
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * A frame painted on the same graphics context: with the gc profiler, the
+     * allocations of a steady state frame, that should be only the few of Swing
+     */
+    @Benchmark
+    public BufferedImage paintFrameAllocations() {
+        panel.paint(graphics);
+        return image;
+    }
+
+    /**
+     * A frame of a drag: the mouse moves and only the region of a run of 12 cards at
+     * its old and new position is painted again, as requested by the panel
+     */
+    @Benchmark
+    public BufferedImage paintDragFrame() {
+        if (dragX + DRAG_STEP * dragDirection > panel.getWidth() - Card.WIDTH || dragX + DRAG_STEP * dragDirection < Card.WIDTH)
+            dragDirection = -dragDirection;
+        int x = dragX;
+        dragX += DRAG_STEP * dragDirection;
+        dragY += DRAG_STEP * dragDirection;
+        panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_DRAGGED, 0, MouseEvent.BUTTON1_DOWN_MASK,
+                dragX, dragY, 0, false));
+
+        Graphics graphics = image.createGraphics();
+        graphics.clipRect(Math.min(x, dragX) - Card.WIDTH / 2, Math.min(dragY, dragY - DRAG_STEP * dragDirection) - Card.HEIGHT / 2,
+                Card.WIDTH + DRAG_STEP + 1, RUN_HEIGHT + DRAG_STEP + 1);
+        panel.paint(graphics);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,60 @@
+package it.alerighi.spider;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the check and removal of a completed run, and of its undo
+ *
+ * @author Alessandro Righi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RunBenchmark {
+
+    private Position position;
+
+    /**
+     * A position with a run from king to two in column 0 and the ace in column 1,
+     * over some face down cards
+     */
+    @Setup
+    public void setup() {
+        position = new Position();
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            position.push(i, Position.cardCode(1, 5));
+            position.push(i, Position.cardCode(2, 9));
+        }
+        for (int value = 13; value > 1; value--) {
+            position.push(0, (byte) (Position.cardCode(0, value) | Position.FACE_UP));
+        }
+        position.push(1, (byte) (Position.cardCode(0, 1) | Position.FACE_UP));
+    }
+
+    /**
+     * Move of the ace that completes the run, removal, and undo of both
+     */
+    @Benchmark
+    public long completeAndRestoreRun() {
+        position.move(1, 0, 1);
+        if (position.getRunLength(0) == 13)
+            position.removeRun(0);
+        long hash = position.getHash();
+        position.restoreRun(0);
+        position.move(0, 1, 1);
+        return hash;
+    }
+
+    /**
+     * Check of a column for a completed run, when there is none
+     */
+    @Benchmark
+    public boolean checkRun() {
+        return position.getRunLength(0) == 13;
+    }
+}
@@ -0,0 +1,88 @@
+package it.alerighi.spider;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the statistics store: recording the result of a game, and opening
+ * the store with a full journal
+ *
+ * @author Alessandro Righi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticsBenchmark {
+
+    private Path directory;
+    private Path fullDirectory;
+    private Statistics statistics;
+    private int game;
+
+    /**
+     * An empty store to record the results, and a store whose journal is about to
+     * be compacted, after many thousands of games
+     */
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("statistics");
+        statistics = Statistics.open(directory);
+
+        fullDirectory = Files.createTempDirectory("statistics");
+        Statistics full = Statistics.open(fullDirectory);
+        try {
+            for (int i = 0; i < 10 * Statistics.COMPACT_THRESHOLD - 1; i++) {
+                full.record(1 << (i % 3), i % 3 == 0, 500 + i % 700, 100 + i % 300, 60000 + i);
+            }
+        } finally {
+            full.close();
+        }
+    }
+
+    /**
+     * Close the store and delete the journals and snapshots of the trial
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        statistics.close();
+        delete(directory);
+        delete(fullDirectory);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Result of a game, written to the journal
+     */
+    @Benchmark
+    public void record() {
+        game++;
+        statistics.record(1 << (game % 3), game % 3 == 0, 500 + game % 700, 100 + game % 300, 60000 + game);
+    }
+
+    /**
+     * Opening of the store, reading the snapshot and the journal
+     */
+    @Benchmark
+    public int open() throws IOException {
+        Statistics opened = Statistics.open(fullDirectory);
+        int played = opened.getSummary(4).getPlayed();
+        opened.close();
+        return played;
+    }
+}
@@ -0,0 +1,233 @@
+package it.alerighi.spider;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool that has bot strategies play a range of numbered deals, to
+ * compare them.
+ * <p>
+ * Each worker thread has its own {@link Game} and its own instance of the
+ * strategy, and plays the deals whose index is its number modulo the number of
+ * threads, one at a time, so the workers share no mutable state. The results of
+ * the workers are added when all of them are done. The score is the one of the
+ * interactive game: {@link Game#INITIAL_SCORE}, minus one for each move or deal,
+ * plus {@link Game#COMPLETED_RUN_BONUS} for each completed run.
+ *
+ * @author Alessandro Righi
+ */
+public final class BotHarness {
+    private static final Logger logger = Logger.getGlobal();
+
+    /**
+     * maximum number of moves of a game, after which the bot resigns
+     */
+    public static final int MAX_MOVES_PER_GAME = 5000;
+
+    /**
+     * Results of the games played by a strategy
+     */
+    public static final class Result {
+        public final int games;
+        public final int won;
+        public final long totalScore;
+        public final long totalMoves;
+        public final long milliseconds;
+
+        Result(int games, int won, long totalScore, long totalMoves, long milliseconds) {
+            this.games = games;
+            this.won = won;
+            this.totalScore = totalScore;
+            this.totalMoves = totalMoves;
+            this.milliseconds = milliseconds;
+        }
+
+        public double winRate() {
+            return games == 0 ? 0 : (double) won / games;
+        }
+
+        public double averageScore() {
+            return games == 0 ? 0 : (double) totalScore / games;
+        }
+
+        public double gamesPerSecond() {
+            return milliseconds == 0 ? 0 : games * 1000.0 / milliseconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games, won %d (%.2f%%), average score %.1f, average moves %.1f, %.0f games/s",
+                    games, won, winRate() * 100, averageScore(), games == 0 ? 0 : (double) totalMoves / games,
+                    gamesPerSecond());
+        }
+    }
+
+    /**
+     * Results of the games of a worker thread
+     */
+    private static final class Worker implements Runnable {
+        private final BotStrategy strategy;
+        private final int numberOfSuits;
+        private final long firstGameNumber;
+        private final int index;
+        private final int threads;
+        private final int count;
+
+        private final Game game = new Game();
+        private final int[] moves = new int[Game.MAX_MOVES];
+        private int games;
+        private int won;
+        private long totalScore;
+        private long totalMoves;
+
+        Worker(BotStrategy strategy, int numberOfSuits, long firstGameNumber, int index, int threads, int count) {
+            this.strategy = strategy;
+            this.numberOfSuits = numberOfSuits;
+            this.firstGameNumber = firstGameNumber;
+            this.index = index;
+            this.threads = threads;
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            for (int i = index; i < count; i += threads) {
+                play(firstGameNumber + i);
+            }
+        }
+
+        private void play(long gameNumber) {
+            game.newGame(numberOfSuits, gameNumber);
+            games++;
+            if (playToEnd(game, strategy, moves))
+                won++;
+            totalScore += game.getScore();
+            totalMoves += game.getNumberOfMoves();
+        }
+    }
+
+    private BotHarness() {
+    }
+
+    /**
+     * Play a game with a strategy until it's won, the strategy resigns or the
+     * game has {@link #MAX_MOVES_PER_GAME} moves
+     *
+     * @param game     game to play
+     * @param strategy strategy of the bot
+     * @param moves    array where to generate the moves, at least {@link Game#MAX_MOVES} long
+     * @return true if the game was won
+     */
+    static boolean playToEnd(Game game, BotStrategy strategy, int[] moves) {
+        strategy.newGame(game.getNumberOfSuits());
+        for (int n = 0; n < MAX_MOVES_PER_GAME && !game.isEnded(); n++) {
+            int numberOfMoves = game.generateMoves(moves);
+            int move = strategy.chooseMove(game.getPosition(), moves, numberOfMoves, game.canDeal());
+            if (move == BotStrategy.RESIGN)
+                break;
+            if (!game.doMove(move)) {
+                logger.warning("Illegal move " + move + " in game #" + game.getGameNumber() + ", resigning");
+                break;
+            }
+        }
+        return game.isEnded();
+    }
+
+    /**
+     * Play a range of deals with a strategy
+     *
+     * @param strategies      creates the strategy of each worker thread
+     * @param numberOfSuits   number of suits of the deals
+     * @param firstGameNumber first game number
+     * @param count           number of deals
+     * @param threads         number of worker threads
+     * @return results of the games
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public static Result play(Supplier<BotStrategy> strategies, int numberOfSuits, long firstGameNumber,
+                              int count, int threads) throws InterruptedException {
+        if (numberOfSuits != 1 && numberOfSuits != 2 && numberOfSuits != 4)
+            throw new IllegalArgumentException("Number of suits must be 1, 2 or 4!");
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is required");
+
+        long start = System.nanoTime();
+        Worker[] workers = new Worker[threads];
+        Thread[] workerThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(strategies.get(), numberOfSuits, firstGameNumber, i, threads, count);
+            workerThreads[i] = new Thread(workers[i], "bot-" + i);
+            workerThreads[i].start();
+        }
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        long milliseconds = (System.nanoTime() - start) / 1000000;
+
+        int games = 0;
+        int won = 0;
+        long totalScore = 0;
+        long totalMoves = 0;
+        for (Worker worker : workers) {
+            games += worker.games;
+            won += worker.won;
+            totalScore += worker.totalScore;
+            totalMoves += worker.totalMoves;
+        }
+        return new Result(games, won, totalScore, totalMoves, milliseconds);
+    }
+
+    /**
+     * Get the factory of a strategy from its name: "greedy", or the name of a class
+     * implementing {@link BotStrategy} with a public constructor without arguments
+     *
+     * @param name name of the strategy
+     * @return factory of the strategy
+     */
+    static Supplier<BotStrategy> strategy(String name) {
+        if (name.equals("greedy"))
+            return GreedyStrategy::new;
+        Class<? extends BotStrategy> type;
+        try {
+            type = Class.forName(name).asSubclass(BotStrategy.class);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown strategy " + name);
+        }
+        return () -> {
+            try {
+                return type.getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Cannot create strategy " + name, e);
+            }
+        };
+    }
+
+    /**
+     * Play a range of deals with some strategies and print the results.
+     * Arguments: number of suits, first game number, number of deals, number of
+     * threads (0 for the number of processors), names of the strategies (default
+     * greedy).
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 4) {
+            System.err.println("usage: BotHarness suits firstGameNumber count threads [strategy...]");
+            System.exit(1);
+        }
+        int suits = Integer.parseInt(args[0]);
+        long first = Long.parseLong(args[1]);
+        int count = Integer.parseInt(args[2]);
+        int threads = Integer.parseInt(args[3]);
+        if (threads == 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        String[] names = args.length > 4 ? Arrays.copyOfRange(args, 4, args.length) : new String[]{"greedy"};
+
+        System.out.printf("%d deals from #%d, %d suits, %d threads%n", count, first, suits, threads);
+        for (String name : names) {
+            Result result = play(strategy(name), suits, first, count, threads);
+            System.out.printf("%-10s %s%n", name, result);
+        }
+    }
+}
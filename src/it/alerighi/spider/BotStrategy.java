@@ -0,0 +1,39 @@
+package it.alerighi.spider;
+
+/**
+ * Strategy of a bot that plays games, run by the {@link BotHarness}.
+ * <p>
+ * The harness creates a strategy for each worker thread, so a strategy can keep
+ * the state of the game it's playing in its fields without synchronization, but
+ * must not share mutable state with the other instances.
+ *
+ * @author Alessandro Righi
+ */
+public interface BotStrategy {
+
+    /**
+     * move that gives up the game
+     */
+    int RESIGN = -1;
+
+    /**
+     * Called before the first move of each game
+     *
+     * @param numberOfSuits number of suits of the game
+     */
+    default void newGame(int numberOfSuits) {
+    }
+
+    /**
+     * Choose the next move
+     *
+     * @param position      current position, that must not be modified
+     * @param moves         legal moves, encoded as in {@link Game#encodeMove(int, int, int)}, in the
+     *                      order of {@link Game#generateMoves(int[])}: moves on a card of the same
+     *                      suit or on an empty column first
+     * @param numberOfMoves number of legal moves
+     * @param canDeal       true if a row of cards can be dealt
+     * @return one of the moves, {@link Game#DEAL_CARDS} to deal or {@link #RESIGN}
+     */
+    int chooseMove(Position position, int[] moves, int numberOfMoves, boolean canDeal);
+}
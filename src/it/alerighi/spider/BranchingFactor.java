@@ -0,0 +1,217 @@
+package it.alerighi.spider;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Command line tool that measures how much {@link Game#generateCanonicalMoves(int[])}
+ * shrinks the branching factor of the search.
+ * <p>
+ * A randomized {@link GreedyStrategy} plays each deal of a range of numbered deals,
+ * with the random generator seeded by the game number so the corpus is the same
+ * at each run, and in each position of the games the possible moves are counted
+ * with and without the redundant ones.
+ * <p>
+ * With the argument {@code check} it searches instead a set of positions where a
+ * rule of the canonical moves once dropped a move needed to win, with all the
+ * possible moves and with the canonical ones, and fails if only the first finds
+ * the win.
+ *
+ * @author Alessandro Righi
+ */
+public final class BranchingFactor {
+
+    /**
+     * moves that don't change the value done by the strategy before each deal
+     */
+    private static final int NEUTRAL_MOVES = 10;
+
+    /**
+     * positions searched by the check, 4 suits, no stock, in the form of
+     * {@link Position#toString()} without the column numbers: suit/value of each
+     * card, # if face down
+     */
+    private static final String[][] CHECK_POSITIONS = {
+            /* 8 of diamonds from the 9 of spades to the 9 of hearts, so the 9 of
+               spades can go on the 10 of spades and empty its column */
+            {
+                    "0/9 3/8",
+                    "1/13 1/12 1/11 1/10 1/9",
+                    "0/13 0/12 0/11 0/10",
+                    "#0/7 #3/5 #1/4 0/1",
+                    "#3/10 #3/2 #3/9 1/1",
+                    "#1/6 #3/12 #3/13 3/1",
+                    "#0/6 #3/4 #0/4 0/3",
+                    "#3/6 #1/8 #3/11 1/3",
+                    "#1/7 #0/8 #1/5 3/3",
+                    "#3/7 #0/2 #1/2 0/5"
+            }
+    };
+
+    /**
+     * suits of the completed runs of the positions of the check
+     */
+    private static final int[] CHECK_RUN_SUITS = {0, 1, 3, 2, 2};
+
+    /**
+     * positions searched in each search of the check
+     */
+    private static final int CHECK_MAX_NODES = 1000000;
+
+    private BranchingFactor() {
+    }
+
+    /**
+     * Measure the branching factor on a range of deals and print it.
+     * Arguments: number of suits, first game number, number of deals.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length == 1 && args[0].equals("check"))
+            System.exit(check() ? 0 : 1);
+        if (args.length < 3) {
+            System.err.println("usage: BranchingFactor suits firstGameNumber count");
+            System.err.println("       BranchingFactor check");
+            System.exit(1);
+        }
+        int suits = Integer.parseInt(args[0]);
+        long first = Long.parseLong(args[1]);
+        int count = Integer.parseInt(args[2]);
+
+        Game game = new Game();
+        int[] moves = new int[Game.MAX_MOVES];
+        int[] canonical = new int[Game.MAX_MOVES];
+        long positions = 0;
+        long possibleMoves = 0;
+        long canonicalMoves = 0;
+        long start = System.nanoTime();
+        for (long gameNumber = first; gameNumber < first + count; gameNumber++) {
+            game.newGame(suits, gameNumber);
+            BotStrategy strategy = new GreedyStrategy(new SplittableRandom(gameNumber), NEUTRAL_MOVES);
+            strategy.newGame(suits);
+            for (int n = 0; n < BotHarness.MAX_MOVES_PER_GAME && !game.isEnded(); n++) {
+                int numberOfMoves = game.generateMoves(moves);
+                positions++;
+                possibleMoves += numberOfMoves;
+                canonicalMoves += game.generateCanonicalMoves(canonical);
+                int move = strategy.chooseMove(game.getPosition(), moves, numberOfMoves, game.canDeal());
+                if (move == BotStrategy.RESIGN || !game.doMove(move))
+                    break;
+            }
+        }
+        long milliseconds = (System.nanoTime() - start) / 1000000;
+
+        System.out.printf("%d deals from #%d, %d suits, %d positions in %d ms%n",
+                count, first, suits, positions, milliseconds);
+        System.out.printf("possible moves  %.2f per position%n", (double) possibleMoves / positions);
+        System.out.printf("canonical moves %.2f per position (%.1f%% fewer)%n", (double) canonicalMoves / positions,
+                100.0 * (possibleMoves - canonicalMoves) / possibleMoves);
+    }
+
+    /**
+     * Search the positions of the check with all the possible moves and with the
+     * canonical ones, and print the results
+     *
+     * @return true if the canonical moves win every position won with all the moves
+     */
+    private static boolean check() {
+        boolean passed = true;
+        for (int i = 0; i < CHECK_POSITIONS.length; i++) {
+            Game game = checkGame(CHECK_POSITIONS[i]);
+            Solver.Status all = search(game, false);
+            Solver.Status canonical = search(game, true);
+            boolean ok = all != Solver.Status.WON || canonical == Solver.Status.WON;
+            System.out.printf("position %d: all moves %s, canonical moves %s%s%n", i, all, canonical,
+                    ok ? "" : " FAILED");
+            passed &= ok;
+        }
+        return passed;
+    }
+
+    /**
+     * Create the game of a position of the check
+     */
+    private static Game checkGame(String[] columns) {
+        ByteBuffer buffer = ByteBuffer.allocate(Position.MAX_ENCODED_SIZE);
+        buffer.put((byte) 0).put((byte) CHECK_RUN_SUITS.length);
+        for (int suit : CHECK_RUN_SUITS) {
+            buffer.put((byte) suit);
+        }
+        for (String column : columns) {
+            buffer.put((byte) column.split(" ").length);
+        }
+        for (String column : columns) {
+            for (String card : column.split(" ")) {
+                boolean faceUp = !card.startsWith("#");
+                String[] suitAndValue = card.substring(faceUp ? 0 : 1).split("/");
+                int code = Position.cardCode(Integer.parseInt(suitAndValue[0]), Integer.parseInt(suitAndValue[1]));
+                buffer.put((byte) (faceUp ? code | Position.FACE_UP : code));
+            }
+        }
+        buffer.flip();
+        Position position = Position.readFrom(buffer);
+        Game game = new Game();
+        game.restore(4, -1, 0, position, new int[0], 0);
+        return game;
+    }
+
+    /**
+     * Depth first search of a game, that never visits a position twice
+     *
+     * @param start     game to search, not modified
+     * @param canonical true to try only the canonical moves, false to try all the possible moves
+     * @return WON if the game can be won, LOST if it can't, UNKNOWN if the search stopped
+     * after {@link #CHECK_MAX_NODES} positions
+     */
+    private static Solver.Status search(Game start, boolean canonical) {
+        Game game = new Game(start);
+        Set<Long> visited = new HashSet<>();
+        visited.add(game.getHash());
+        int[] moves = new int[Game.MAX_MOVES * 4];
+        int[] next = new int[64];
+        int[] end = new int[64];
+        end[0] = generate(game, canonical, moves, 0);
+        int depth = 0;
+        while (depth >= 0) {
+            if (next[depth] == end[depth]) {
+                if (--depth >= 0)
+                    game.undoLastMove();
+                continue;
+            }
+            game.doMove(moves[next[depth]++]);
+            if (game.isEnded())
+                return Solver.Status.WON;
+            if (!visited.add(game.getHash())) {
+                game.undoLastMove();
+                continue;
+            }
+            if (visited.size() > CHECK_MAX_NODES)
+                return Solver.Status.UNKNOWN;
+
+            depth++;
+            if (depth == next.length) {
+                next = Arrays.copyOf(next, depth * 2);
+                end = Arrays.copyOf(end, depth * 2);
+            }
+            if (end[depth - 1] + Game.MAX_MOVES + 1 > moves.length)
+                moves = Arrays.copyOf(moves, moves.length * 2);
+            next[depth] = end[depth - 1];
+            end[depth] = next[depth] + generate(game, canonical, moves, next[depth]);
+        }
+        return Solver.Status.LOST;
+    }
+
+    /**
+     * Generate the moves of a search, and the deal if possible
+     */
+    private static int generate(Game game, boolean canonical, int[] moves, int offset) {
+        int n = canonical ? game.generateCanonicalMoves(moves, offset) : game.generateMoves(moves, offset);
+        if (game.canDeal())
+            moves[offset + n++] = Game.DEAL_CARDS;
+        return n;
+    }
+}
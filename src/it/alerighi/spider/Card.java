@@ -1,12 +1,11 @@
 package it.alerighi.spider;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
-import java.io.IOException;
-import java.util.logging.Logger;
 
 /**
- * Class that represent a card
+ * Class that represent a card, as one of 52 shared immutable instances: the
+ * face-up state of a card is stored in the column of the {@link Position} that
+ * holds it, and its position on screen is computed by the {@link Deck} drawing it
  *
  * @author Alessandro Righi
  */
@@ -18,112 +17,94 @@ public final class Card {
     private static final String[] SUITS = {"spades", "hearts", "clubs", "diamonds"};
     private static final String[] VALUES = {"ace", "2", "3", "4", "5", "6", "7", "8", "9", "10", "jack", "queen", "king"};
 
-    private static final Logger logger = Logger.getGlobal();
+    /**
+     * the cards, by code
+     */
+    private static final Card[] CARDS = new Card[52];
 
-    private static Image[] cardsImages = new Image[52];
-    private static Image back;
+    static {
+        for (int code = 0; code < CARDS.length; code++) {
+            CARDS[code] = new Card(Position.suitOf(code), Position.valueOf(code));
+        }
+    }
 
-    public final int value;
     public final int suit;
+    public final int value;
 
-    private Point position = new Point(0, 0);
-
-    private boolean isVisible;
-
-    static {
-        logger.info("loading images from resource files...");
-        try {
-            int i = 0;
-            for (String suit : SUITS) {
-                for (String value : VALUES) {
-                    cardsImages[i++] = ImageIO.read(Card.class.getResourceAsStream(value + "_of_" + suit + ".png"));
-                }
-            }
-
-            back = ImageIO.read(Card.class.getResourceAsStream("back.png"));
-        } catch (IOException e) {
-            logger.severe("Error loading card images!");
-        }
+    private Card(int suit, int value) {
+        this.suit = suit;
+        this.value = value;
     }
 
     /**
-     * Card constructor
+     * Get a card
      *
      * @param suit  suit value (0-3)
-     * @param value card value (1-11)
+     * @param value card value (1-13)
+     * @return the card
      */
-    public Card(int suit, int value) {
+    public static Card of(int suit, int value) {
         if (value < 1 || value > 13 || suit < 0 || suit > 3) {
             throw new IllegalArgumentException("Suit or value out of bounds!");
         }
-        this.suit = suit;
-        this.value = value;
+        return CARDS[Position.cardCode(suit, value)];
     }
 
     /**
-     * Draws the card back
+     * Get a card from its code in a {@link Position}
      *
-     * @param position position
-     * @param graphics l'oggetto grafico su cui disegnare
+     * @param code card code, face up or not
+     * @return the card
      */
-    public static void drawCardBack(Point position, Graphics graphics) {
-        graphics.drawImage(back, position.x, position.y, WIDTH, HEIGHT, null);
+    public static Card fromCode(int code) {
+        return CARDS[code & ~Position.FACE_UP];
     }
 
     /**
-     * Set the position of the specified card, and draws it
+     * Get the code of the card in a {@link Position}, face down
      *
-     * @param graphics area grafica in cui disegnare la carta
-     * @param position position of the card
+     * @return card code
      */
-    public void paint(Graphics graphics, Point position) {
-        setPosition(position);
-        if (isVisible) {
-            graphics.drawImage(cardsImages[suit * 13 + value - 1], position.x, position.y, WIDTH, HEIGHT, null);
-        } else {
-            drawCardBack(position, graphics);
-        }
-    }
-
-    @Override
-    public String toString() {
-        return SUITS[suit] + " of " + VALUES[value - 1];
+    public byte getCode() {
+        return Position.cardCode(suit, value);
     }
 
     /**
-     * Get the card position
+     * Draws a card from its code in a {@link Position}
      *
-     * @return card position
+     * @param graphics graphics area
+     * @param code     card code
+     * @param x        x coordinate
+     * @param y        y coordinate
      */
-    public Point getPosition() {
-        return new Point(position);
+    public static void paint(Graphics graphics, int code, int x, int y) {
+        CardImages.draw(graphics, Position.isFaceUp(code) ? code & ~Position.FACE_UP : CardImages.BACK, x, y);
     }
 
     /**
-     * Set the card position
+     * Draws the card back
      *
-     * @param position new position
+     * @param graphics graphics area
+     * @param x        x coordinate
+     * @param y        y coordinate
      */
-    public void setPosition(Point position) {
-        this.position = new Point(position);
+    public static void drawCardBack(Graphics graphics, int x, int y) {
+        CardImages.draw(graphics, CardImages.BACK, x, y);
     }
 
     /**
-     * Check if the card is visible
+     * Draws the face of the card
      *
-     * @return true only if visible
+     * @param graphics graphics area
+     * @param x        x coordinate
+     * @param y        y coordinate
      */
-    public boolean isVisible() {
-        return isVisible;
+    public void paint(Graphics graphics, int x, int y) {
+        CardImages.draw(graphics, getCode(), x, y);
     }
 
-    /**
-     * Set card visibility
-     *
-     * @param val visibility
-     */
-    public void setVisible(boolean val) {
-        this.isVisible = val;
+    @Override
+    public String toString() {
+        return SUITS[suit] + " of " + VALUES[value - 1];
     }
-
 }
@@ -0,0 +1,471 @@
+package it.alerighi.spider;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Cache of the images of the cards, scaled to the size of a card in the pixel
+ * format of the display, so that drawing a card is an unscaled blit.
+ * <p>
+ * Most of a card is opaque: only its rounded corners and edges are translucent. So
+ * a card is drawn as an opaque body, which is a plain copy, and four thin
+ * translucent strips around it, which need blending.
+ * <p>
+ * The images are built for the {@link GraphicsConfiguration} of the game panel
+ * and its scale, and built again by {@link #validate(GraphicsConfiguration)} when
+ * the configuration changes, as when the window moves to another display. On a
+ * scaled (HiDPI) display the images have the size of a card in device pixels.
+ * <p>
+ * The images are loaded in background by {@link #load()}, from the
+ * {@link ImageAtlas} or from the PNG images if there is no atlas, decoding them in
+ * parallel. Until they are loaded, or if some can't be loaded,
+ * {@link #validate(GraphicsConfiguration)} returns false and the game shows a
+ * placeholder.
+ *
+ * @author Alessandro Righi
+ */
+final class CardImages {
+    private static final Logger logger = Logger.getGlobal();
+
+    private static final String[] SUITS = {"spades", "hearts", "clubs", "diamonds"};
+    private static final String[] VALUES = {"ace", "2", "3", "4", "5", "6", "7", "8", "9", "10", "jack", "queen", "king"};
+
+    /**
+     * full size images, as loaded from the resources
+     */
+    private static final BufferedImage[] sourceFaces = new BufferedImage[52];
+    private static BufferedImage sourceBack;
+    private static BufferedImage icon;
+
+    /**
+     * thread loading the images, null before {@link #load()}
+     */
+    private static Thread loader;
+    private static final CountDownLatch loaded = new CountDownLatch(1);
+
+    /**
+     * true if some images couldn't be loaded, read after the latch
+     */
+    private static boolean failed;
+
+    /**
+     * listeners to run on the event dispatch thread when the images are loaded
+     */
+    private static final List<Runnable> loadListeners = new ArrayList<>();
+
+    /**
+     * index of the back in the images
+     */
+    static final int BACK = 52;
+
+    /**
+     * scaled images of the faces and of the back, for the current configuration
+     */
+    private static final Sprite[] sprites = new Sprite[53];
+
+    private static GraphicsConfiguration configuration;
+    private static double scale;
+    private static boolean valid;
+
+    private CardImages() {
+    }
+
+    /**
+     * Start loading the images in background, if not already started
+     */
+    static synchronized void load() {
+        if (loader != null)
+            return;
+        loader = new Thread(CardImages::loadImages, "images");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Load the images, from the atlas if present, decoding them on all the processors
+     */
+    private static void loadImages() {
+        logger.info("loading images from resource files...");
+        long start = System.nanoTime();
+        ExecutorService decoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "images-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            readImages(decoders);
+            logger.info("images loaded in " + (System.nanoTime() - start) / 1000000 + " ms");
+            failed = sourceBack == null || Arrays.asList(sourceFaces).contains(null);
+            if (failed) {
+                logger.severe("Missing card images!");
+            } else {
+                /* scaled for the default screen here, so that usually the first frame doesn't wait */
+                build(GraphicsEnvironment.isHeadless() ? null
+                        : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration());
+            }
+        } catch (IOException | ExecutionException | RuntimeException e) {
+            logger.severe("Error loading card images: " + e);
+            failed = true;
+        } catch (InterruptedException e) {
+            logger.severe("Interrupted while loading card images!");
+            failed = true;
+        } finally {
+            decoders.shutdown();
+            loaded.countDown();
+            synchronized (CardImages.class) {
+                for (Runnable listener : loadListeners) {
+                    SwingUtilities.invokeLater(listener);
+                }
+                loadListeners.clear();
+            }
+        }
+    }
+
+    /**
+     * Read the full size images, from the atlas if present or else from the PNG images
+     *
+     * @param decoders executor where to decode the images
+     * @throws IOException          if an image can't be read
+     * @throws ExecutionException   if an image can't be decoded
+     * @throws InterruptedException if interrupted while waiting for the decoders
+     */
+    private static void readImages(ExecutorService decoders) throws IOException, ExecutionException, InterruptedException {
+        try (InputStream atlas = CardImages.class.getResourceAsStream(ImageAtlas.RESOURCE_NAME)) {
+            if (atlas != null) {
+                Map<String, BufferedImage> images = ImageAtlas.read(atlas, decoders);
+                for (int i = 0; i < sourceFaces.length; i++) {
+                    sourceFaces[i] = images.get(imageName(i));
+                }
+                sourceBack = images.get("back");
+                icon = images.get("spider");
+                return;
+            }
+        }
+        logger.warning("no image atlas, loading the single images");
+        List<Future<BufferedImage>> faces = new ArrayList<>(sourceFaces.length);
+        for (int i = 0; i < sourceFaces.length; i++) {
+            String name = imageName(i) + ".png";
+            faces.add(decoders.submit(() -> readImage(name)));
+        }
+        sourceBack = readImage("back.png");
+        icon = readImage("spider.png");
+        for (int i = 0; i < sourceFaces.length; i++) {
+            sourceFaces[i] = faces.get(i).get();
+        }
+    }
+
+    /**
+     * Read a PNG image of the resources
+     *
+     * @param name name of the image
+     * @return the image
+     * @throws IOException if the image is missing or can't be read
+     */
+    private static BufferedImage readImage(String name) throws IOException {
+        try (InputStream input = CardImages.class.getResourceAsStream(name)) {
+            if (input == null)
+                throw new IOException("Missing image " + name);
+            BufferedImage image = ImageIO.read(input);
+            if (image == null)
+                throw new IOException("Invalid image " + name);
+            return image;
+        }
+    }
+
+    /**
+     * Get the name of the image of a card in the resources
+     *
+     * @param index card index, suit * 13 + value - 1
+     * @return name of the image, without extension
+     */
+    private static String imageName(int index) {
+        return VALUES[index % 13] + "_of_" + SUITS[index / 13];
+    }
+
+    /**
+     * Run an action on the event dispatch thread when the images are loaded, at once
+     * if they are already loaded
+     *
+     * @param listener action to run
+     */
+    static synchronized void whenLoaded(Runnable listener) {
+        load();
+        if (loaded.getCount() == 0)
+            SwingUtilities.invokeLater(listener);
+        else
+            loadListeners.add(listener);
+    }
+
+    /**
+     * Wait until the images are loaded, loading them if not started
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static void await() throws InterruptedException {
+        load();
+        loaded.await();
+    }
+
+    /**
+     * Check if some images couldn't be loaded, so the cards will never be drawn
+     *
+     * @return true if the images are loaded and some are missing
+     */
+    static boolean hasFailed() {
+        return loaded.getCount() == 0 && failed;
+    }
+
+    /**
+     * Get the icon of the game
+     *
+     * @return icon, null if not loaded
+     */
+    static Image getIcon() {
+        return loaded.getCount() == 0 ? icon : null;
+    }
+
+    /**
+     * Make sure the images are built for a configuration, building them again if it
+     * changed. Cheap when nothing changed: called once per frame.
+     *
+     * @param graphicsConfiguration configuration of the component drawn, null if unknown
+     * @return false if the images are not loaded yet, or couldn't be loaded, and the
+     * cards can't be drawn
+     */
+    static boolean validate(GraphicsConfiguration graphicsConfiguration) {
+        /* the latch is checked first, so the images built by the loader are visible */
+        if (loaded.getCount() != 0) {
+            load();
+            return false;
+        }
+        if (failed)
+            return false;
+        if (valid && graphicsConfiguration == configuration)
+            return true;
+        build(graphicsConfiguration);
+        return true;
+    }
+
+    /**
+     * Build the scaled images for a configuration, on all the processors
+     *
+     * @param graphicsConfiguration configuration of the component drawn, null if unknown
+     */
+    private static void build(GraphicsConfiguration graphicsConfiguration) {
+        scale = 1;
+        if (graphicsConfiguration != null) {
+            AffineTransform transform = graphicsConfiguration.getDefaultTransform();
+            scale = Math.max(transform.getScaleX(), transform.getScaleY());
+        }
+        configuration = graphicsConfiguration;
+
+        long start = System.nanoTime();
+        int width = (int) Math.ceil(Card.WIDTH * scale);
+        int height = (int) Math.ceil(Card.HEIGHT * scale);
+        IntStream.range(0, sprites.length).parallel().forEach(i -> {
+            BufferedImage image = scale(i == BACK ? sourceBack : sourceFaces[i], width, height);
+            sprites[i] = scale == 1 ? Sprite.split(image) : new Sprite(image);
+        });
+        valid = true;
+        logger.info("card images scaled to " + width + "x" + height + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Scale an image with good quality, halving it while it's more than twice the
+     * size and then scaling it to the final size with bilinear interpolation
+     *
+     * @param image  image to scale
+     * @param width  width of the scaled image
+     * @param height height of the scaled image
+     * @return the scaled image, in the compatible format of the configuration
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        while (currentWidth >= width * 2 && currentHeight >= height * 2) {
+            currentWidth /= 2;
+            currentHeight /= 2;
+            current = copy(current, 0, 0, current.getWidth(), current.getHeight(), currentWidth, currentHeight, Transparency.TRANSLUCENT);
+        }
+        return copy(current, 0, 0, current.getWidth(), current.getHeight(), width, height, Transparency.TRANSLUCENT);
+    }
+
+    /**
+     * Copy a region of an image, scaled, into a new image in the compatible format
+     * of the configuration
+     *
+     * @param image        source image
+     * @param x            x of the region
+     * @param y            y of the region
+     * @param width        width of the region
+     * @param height       height of the region
+     * @param scaledWidth  width of the new image
+     * @param scaledHeight height of the new image
+     * @param transparency {@link Transparency} of the new image
+     * @return new image
+     */
+    private static BufferedImage copy(BufferedImage image, int x, int y, int width, int height,
+                                      int scaledWidth, int scaledHeight, int transparency) {
+        BufferedImage result;
+        if (configuration != null)
+            result = configuration.createCompatibleImage(scaledWidth, scaledHeight, transparency);
+        else
+            result = new BufferedImage(scaledWidth, scaledHeight, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D graphics = result.createGraphics();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, scaledWidth, scaledHeight, x, y, x + width, y + height, null);
+        graphics.dispose();
+        return result;
+    }
+
+    /**
+     * Draw a card
+     *
+     * @param graphics graphics area
+     * @param index    card index, suit * 13 + value - 1, or {@link #BACK}
+     * @param x        x coordinate
+     * @param y        y coordinate
+     */
+    static void draw(Graphics graphics, int index, int x, int y) {
+        sprites[index].draw(graphics, x, y);
+    }
+
+    /**
+     * Image of a card, split in an opaque body and translucent borders when possible
+     */
+    private static final class Sprite {
+        /**
+         * whole image, used when the card is not split
+         */
+        final BufferedImage image;
+
+        /**
+         * opaque body and translucent borders, null if not split
+         */
+        final BufferedImage body;
+        final BufferedImage top;
+        final BufferedImage bottom;
+        final BufferedImage left;
+        final BufferedImage right;
+
+        /**
+         * size of the borders
+         */
+        final int topHeight;
+        final int bottomHeight;
+        final int leftWidth;
+        final int rightWidth;
+
+        /**
+         * Create a sprite that is not split, drawn with the size of a card so that on
+         * scaled displays it is one image pixel per device pixel
+         */
+        Sprite(BufferedImage image) {
+            this.image = image;
+            body = top = bottom = left = right = null;
+            topHeight = bottomHeight = leftWidth = rightWidth = 0;
+        }
+
+        private Sprite(BufferedImage image, int topHeight, int bottomHeight, int leftWidth, int rightWidth) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int bodyHeight = height - topHeight - bottomHeight;
+            this.image = image;
+            this.topHeight = topHeight;
+            this.bottomHeight = bottomHeight;
+            this.leftWidth = leftWidth;
+            this.rightWidth = rightWidth;
+            body = copy(image, leftWidth, topHeight, width - leftWidth - rightWidth, bodyHeight,
+                    width - leftWidth - rightWidth, bodyHeight, Transparency.OPAQUE);
+            top = strip(image, 0, 0, width, topHeight);
+            bottom = strip(image, 0, height - bottomHeight, width, bottomHeight);
+            left = strip(image, 0, topHeight, leftWidth, bodyHeight);
+            right = strip(image, width - rightWidth, topHeight, rightWidth, bodyHeight);
+        }
+
+        private static BufferedImage strip(BufferedImage image, int x, int y, int width, int height) {
+            if (width == 0 || height == 0)
+                return null;
+            return copy(image, x, y, width, height, width, height, Transparency.TRANSLUCENT);
+        }
+
+        /**
+         * Split an image in its largest opaque body, found from the middle of the
+         * sides inwards, and the borders around it
+         *
+         * @param image image of a card, of the size of a card
+         * @return sprite of the card, not split if the body is not opaque
+         */
+        static Sprite split(BufferedImage image) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+
+            /* the side borders: the translucent columns in the middle rows */
+            int leftWidth = 0;
+            int rightWidth = 0;
+            for (int y = height / 4; y < height * 3 / 4; y++) {
+                while (leftWidth < width / 2 && !isOpaque(image, leftWidth, y))
+                    leftWidth++;
+                while (rightWidth < width / 2 && !isOpaque(image, width - 1 - rightWidth, y))
+                    rightWidth++;
+            }
+
+            /* the top and bottom borders: the rows with translucent pixels between the side borders */
+            int topHeight = 0;
+            while (topHeight < height / 2 && !isOpaqueRow(image, topHeight, leftWidth, width - rightWidth))
+                topHeight++;
+            int bottomHeight = 0;
+            while (bottomHeight < height / 2 && !isOpaqueRow(image, height - 1 - bottomHeight, leftWidth, width - rightWidth))
+                bottomHeight++;
+
+            for (int y = topHeight; y < height - bottomHeight; y++) {
+                if (!isOpaqueRow(image, y, leftWidth, width - rightWidth))
+                    return new Sprite(image);
+            }
+            return new Sprite(image, topHeight, bottomHeight, leftWidth, rightWidth);
+        }
+
+        private static boolean isOpaque(BufferedImage image, int x, int y) {
+            return image.getRGB(x, y) >>> 24 == 0xFF;
+        }
+
+        private static boolean isOpaqueRow(BufferedImage image, int y, int from, int to) {
+            for (int x = from; x < to; x++) {
+                if (!isOpaque(image, x, y))
+                    return false;
+            }
+            return true;
+        }
+
+        void draw(Graphics graphics, int x, int y) {
+            if (body == null) {
+                graphics.drawImage(image, x, y, Card.WIDTH, Card.HEIGHT, null);
+                return;
+            }
+            graphics.drawImage(body, x + leftWidth, y + topHeight, null);
+            if (top != null)
+                graphics.drawImage(top, x, y, null);
+            if (bottom != null)
+                graphics.drawImage(bottom, x, y + Card.HEIGHT - bottomHeight, null);
+            if (left != null)
+                graphics.drawImage(left, x, y + topHeight, null);
+            if (right != null)
+                graphics.drawImage(right, x + Card.WIDTH - rightWidth, y + topHeight, null);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package it.alerighi.spider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool that solves a range of numbered deals with the {@link Solver},
+ * one deal for each thread at a time, to find how many of them can be won.
+ * <p>
+ * The deals are the same of the interactive game, as they are dealt by
+ * {@link Game#newGame(int, long)}. The results are streamed to a binary file, in
+ * the order the deals are completed: a header with the magic "SPDA", the version,
+ * the number of suits, the node and time budgets of a deal, then one record for
+ * each deal with the game number (long), the {@link Solver.Status} ordinal (byte),
+ * the nodes searched (long), the time in milliseconds (int) and the number of moves
+ * of the solution (short).
+ * <p>
+ * With a {@link DealDatabase}, the deals already won or lost in it are not
+ * solved again, and their records have no nodes and no time, while the results
+ * of the other deals are stored in it.
+ *
+ * @author Alessandro Righi
+ */
+public final class DealAnalyzer {
+    private static final Logger logger = Logger.getGlobal();
+
+    private static final int MAGIC = 0x53504441; /* "SPDA" */
+    private static final int VERSION = 1;
+
+    /**
+     * log2 of the slots of the transposition table of each thread
+     */
+    private static final int TABLE_BITS = 20;
+
+    /**
+     * Statistics of the deals solved by a thread
+     */
+    private static final class Statistics {
+        final long[] count = new long[Solver.Status.values().length];
+        long nodes;
+        long[] milliseconds = new long[1024];
+        int deals;
+
+        void add(Solver.Result result) {
+            count[result.status.ordinal()]++;
+            nodes += result.nodes;
+            if (deals == milliseconds.length)
+                milliseconds = Arrays.copyOf(milliseconds, deals * 2);
+            milliseconds[deals++] = result.milliseconds;
+        }
+
+        void add(Statistics statistics) {
+            for (int i = 0; i < count.length; i++) {
+                count[i] += statistics.count[i];
+            }
+            nodes += statistics.nodes;
+            for (int i = 0; i < statistics.deals; i++) {
+                if (deals == milliseconds.length)
+                    milliseconds = Arrays.copyOf(milliseconds, deals * 2);
+                milliseconds[deals++] = statistics.milliseconds[i];
+            }
+        }
+    }
+
+    private final int numberOfSuits;
+    private final long maxNodes;
+    private final long maxMilliseconds;
+    private final int threads;
+
+    /**
+     * outcomes of the deals already solved, null if none
+     */
+    private final DealDatabase database;
+
+    /**
+     * Create an analyzer
+     *
+     * @param numberOfSuits   number of suits of the deals
+     * @param maxNodes        maximum number of positions searched for each deal
+     * @param maxMilliseconds maximum time spent on each deal
+     * @param threads         number of deals solved at the same time
+     * @param database        outcomes of the deals already solved, null if none
+     */
+    public DealAnalyzer(int numberOfSuits, long maxNodes, long maxMilliseconds, int threads, DealDatabase database) {
+        if (numberOfSuits != 1 && numberOfSuits != 2 && numberOfSuits != 4)
+            throw new IllegalArgumentException("Number of suits must be 1, 2 or 4!");
+        this.numberOfSuits = numberOfSuits;
+        this.maxNodes = maxNodes;
+        this.maxMilliseconds = maxMilliseconds;
+        this.threads = threads;
+        this.database = database;
+    }
+
+    /**
+     * Solve a deal, or get its outcome from the database
+     */
+    private Solver.Result solve(Solver solver, Game game, long gameNumber) throws IOException {
+        Solver.Status status = database != null ? database.getStatus(numberOfSuits, gameNumber) : null;
+        if (status == Solver.Status.WON)
+            return new Solver.Result(status, database.getSolution(numberOfSuits, gameNumber), 0, 0, 1);
+        if (status == Solver.Status.LOST)
+            return new Solver.Result(status, new int[0], 0, 0, 1);
+
+        game.newGame(numberOfSuits, gameNumber);
+        Solver.Result result = solver.solve(game);
+        if (database != null)
+            database.put(numberOfSuits, gameNumber, result);
+        return result;
+    }
+
+    /**
+     * Solve a range of deals, writing the results to a stream
+     *
+     * @param firstGameNumber first game number
+     * @param count           number of deals
+     * @param output          stream where to write the results
+     * @return statistics of all the deals
+     * @throws IOException if the results can't be written
+     */
+    private Statistics analyze(long firstGameNumber, long count, DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(numberOfSuits);
+        output.writeLong(maxNodes);
+        output.writeLong(maxMilliseconds);
+
+        AtomicLong next = new AtomicLong(firstGameNumber);
+        long end = firstGameNumber + count;
+        Statistics[] statistics = new Statistics[threads];
+        IOException[] error = new IOException[1];
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            Statistics local = statistics[i] = new Statistics();
+            workers[i] = new Thread(() -> {
+                Solver solver = new Solver(1, maxNodes, maxMilliseconds, TABLE_BITS);
+                Game game = new Game();
+                try {
+                    for (long gameNumber; (gameNumber = next.getAndIncrement()) < end; ) {
+                        Solver.Result result = solve(solver, game, gameNumber);
+                        local.add(result);
+                        synchronized (output) {
+                            output.writeLong(gameNumber);
+                            output.writeByte(result.status.ordinal());
+                            output.writeLong(result.nodes);
+                            output.writeInt((int) result.milliseconds);
+                            output.writeShort(result.solution.length);
+                        }
+                    }
+                } catch (IOException e) {
+                    synchronized (error) {
+                        error[0] = e;
+                    }
+                    next.set(end);
+                } finally {
+                    solver.shutdown();
+                }
+            }, "analyzer-" + i);
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                next.set(end);
+            }
+        }
+        synchronized (error) {
+            if (error[0] != null)
+                throw error[0];
+        }
+
+        Statistics total = new Statistics();
+        for (Statistics local : statistics) {
+            total.add(local);
+        }
+        return total;
+    }
+
+    /**
+     * Get a percentile of sorted values
+     */
+    private static long percentile(long[] sorted, int length, double fraction) {
+        if (length == 0)
+            return 0;
+        return sorted[Math.min(length - 1, (int) Math.ceil(fraction * length) - 1)];
+    }
+
+    /**
+     * Solve a range of deals and print the summary.
+     * Arguments: number of suits, first game number, number of deals, maximum nodes
+     * for each deal, maximum milliseconds for each deal, output file, number of
+     * threads (default the number of processors), directory of the deal database
+     * (default none).
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 6) {
+            System.err.println("usage: DealAnalyzer suits firstGameNumber count maxNodes maxMilliseconds outputFile [threads [databaseDirectory]]");
+            System.exit(1);
+        }
+        int suits = Integer.parseInt(args[0]);
+        long first = Long.parseLong(args[1]);
+        long count = Long.parseLong(args[2]);
+        long maxNodes = Long.parseLong(args[3]);
+        long maxMilliseconds = Long.parseLong(args[4]);
+        int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+
+        DealDatabase database = null;
+        if (args.length > 7) {
+            try {
+                database = DealDatabase.open(Paths.get(args[7]));
+            } catch (IOException e) {
+                logger.severe("Cannot open the deal database: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        DealAnalyzer analyzer = new DealAnalyzer(suits, maxNodes, maxMilliseconds, threads, database);
+        long start = System.nanoTime();
+        Statistics statistics;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[5]), 1 << 16))) {
+            statistics = analyzer.analyze(first, count, output);
+        } catch (IOException e) {
+            logger.severe("Cannot write the results: " + e.getMessage());
+            System.exit(1);
+            return;
+        } finally {
+            if (database != null)
+                database.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] milliseconds = statistics.milliseconds;
+        int deals = statistics.deals;
+        Arrays.sort(milliseconds, 0, deals);
+        System.out.printf("%d deals, %d suits, %d threads, budget %d nodes / %d ms%n",
+                deals, suits, threads, maxNodes, maxMilliseconds);
+        for (Solver.Status status : Solver.Status.values()) {
+            long n = statistics.count[status.ordinal()];
+            System.out.printf("%-8s %8d  %6.2f%%%n", status, n, deals == 0 ? 0 : n * 100.0 / deals);
+        }
+        System.out.printf("time per deal: p50 %d ms, p90 %d ms, p99 %d ms, max %d ms%n",
+                percentile(milliseconds, deals, 0.5), percentile(milliseconds, deals, 0.9),
+                percentile(milliseconds, deals, 0.99), percentile(milliseconds, deals, 1));
+        System.out.printf("throughput: %.2f deals/s, %.0f nodes/s, %.1f s total%n",
+                deals / seconds, statistics.nodes / seconds, seconds);
+    }
+}
@@ -0,0 +1,355 @@
+package it.alerighi.spider;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Outcomes of the numbered deals found by the {@link Solver}, kept on disk, so
+ * the same deal is never solved twice.
+ * <p>
+ * The database is a memory mapped file: a header, an index of
+ * {@link #INDEX_SLOTS} slots with open addressing and linear probing, and the
+ * records, appended one after the other. Each slot holds the game number, the
+ * number of suits and the position of the record of a deal, and each record the
+ * {@link Solver.Status}, the number of moves of the solution and the moves, so a
+ * lookup reads a slot and a few bytes of the mapped file. A better result for a
+ * deal is appended as a new record and the slot moved to it, so the records are
+ * never changed once written.
+ * <p>
+ * The methods are thread safe: lookups run in parallel, appends one at a time,
+ * also holding a lock on the header of the file, so that other processes, as the
+ * {@link DealAnalyzer} while the game is open, can append to the same database.
+ * The index has a fixed size, and when it's {@link #MAX_LOAD_PERCENT} percent full
+ * no new deal is added.
+ *
+ * @author Alessandro Righi
+ */
+public final class DealDatabase {
+    private static final Logger logger = Logger.getGlobal();
+
+    static final String FILE_NAME = "deals.db";
+
+    private static final int MAGIC = 0x53504442; /* "SPDB" */
+    private static final int VERSION = 1;
+
+    /**
+     * header: magic, version, number of slots, number of deals, end of the records
+     */
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 12;
+    private static final int END_OFFSET = 16;
+
+    public static final int INDEX_SLOTS = 1 << 18;
+    public static final int MAX_LOAD_PERCENT = 75;
+
+    /**
+     * size of a slot: game number, number of suits (0 if the slot is free), position of the record
+     */
+    private static final int SLOT_SIZE = 16;
+    private static final int RECORDS_OFFSET = HEADER_SIZE + INDEX_SLOTS * SLOT_SIZE;
+
+    /**
+     * size of a record without the moves: status, reserved, number of moves
+     */
+    private static final int RECORD_HEADER_SIZE = 4;
+
+    /**
+     * space added to the file when the records don't fit
+     */
+    private static final int GROWTH = 1 << 20;
+
+    private final FileChannel channel;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedByteBuffer buffer;
+
+    private DealDatabase(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock fileLock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                init();
+            } finally {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create the header of a new file, or check the one of an existing file, and map it
+     */
+    private void init() throws IOException {
+        if (channel.size() == 0) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, RECORDS_OFFSET + GROWTH);
+            buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, INDEX_SLOTS).putInt(COUNT_OFFSET, 0)
+                    .putLong(END_OFFSET, RECORDS_OFFSET);
+            buffer.force();
+        } else {
+            if (channel.size() < RECORDS_OFFSET)
+                throw new IOException("Invalid deal database");
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != INDEX_SLOTS
+                    || buffer.getLong(END_OFFSET) > channel.size())
+                throw new IOException("Invalid deal database");
+        }
+    }
+
+    /**
+     * Open the database of a directory, creating it if it doesn't exist
+     *
+     * @param directory directory of the database
+     * @return the database
+     * @throws IOException if the database can't be opened or is corrupted
+     */
+    public static DealDatabase open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new DealDatabase(directory.resolve(FILE_NAME));
+    }
+
+    /**
+     * Get the outcome of a deal
+     *
+     * @param numberOfSuits number of suits of the deal
+     * @param gameNumber    game number of the deal
+     * @return status found by the solver, null if the deal is not in the database
+     */
+    public Solver.Status getStatus(int numberOfSuits, long gameNumber) {
+        int record = find(numberOfSuits, gameNumber);
+        if (record < 0)
+            return null;
+        lock.readLock().lock();
+        try {
+            return Solver.Status.values()[buffer.get(record)];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of moves of the shortest solution found of a deal
+     *
+     * @param numberOfSuits number of suits of the deal
+     * @param gameNumber    game number of the deal
+     * @return number of moves, -1 if the deal is not known to be winnable
+     */
+    public int getNumberOfMoves(int numberOfSuits, long gameNumber) {
+        int record = find(numberOfSuits, gameNumber);
+        if (record < 0)
+            return -1;
+        lock.readLock().lock();
+        try {
+            return buffer.get(record) == Solver.Status.WON.ordinal() ? buffer.getShort(record + 2) : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the shortest solution found of a deal
+     *
+     * @param numberOfSuits number of suits of the deal
+     * @param gameNumber    game number of the deal
+     * @return moves to win, encoded as in {@link Game#doMove(int)}, null if the deal is
+     * not known to be winnable
+     */
+    public int[] getSolution(int numberOfSuits, long gameNumber) {
+        int record = find(numberOfSuits, gameNumber);
+        if (record < 0)
+            return null;
+        lock.readLock().lock();
+        try {
+            if (buffer.get(record) != Solver.Status.WON.ordinal())
+                return null;
+            int[] solution = new int[buffer.getShort(record + 2)];
+            for (int i = 0; i < solution.length; i++) {
+                solution[i] = buffer.getShort(record + RECORD_HEADER_SIZE + 2 * i);
+            }
+            return solution;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of deals in the database
+     *
+     * @return number of deals
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return buffer.getInt(COUNT_OFFSET);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Store the outcome of a deal, if it's better than the one stored: a win with
+     * less moves, or any result other than {@link Solver.Status#UNKNOWN}
+     *
+     * @param numberOfSuits number of suits of the deal
+     * @param gameNumber    game number of the deal
+     * @param result        result of the solver on the deal from its start
+     * @return true if the result was stored, false if it's not better or the database is full
+     * @throws IOException if the file can't be extended
+     */
+    public boolean put(int numberOfSuits, long gameNumber, Solver.Result result) throws IOException {
+        if (numberOfSuits != 1 && numberOfSuits != 2 && numberOfSuits != 4)
+            throw new IllegalArgumentException("Number of suits must be 1, 2 or 4!");
+        if (result.solution.length > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Solution too long");
+
+        lock.writeLock().lock();
+        try {
+            FileLock fileLock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                return append(numberOfSuits, gameNumber, result);
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Append the record of a deal and point its slot to it, holding the locks
+     */
+    private boolean append(int numberOfSuits, long gameNumber, Solver.Result result) throws IOException {
+        int slot = slot(numberOfSuits, gameNumber);
+        int record = buffer.getInt(slot + 12);
+        if (buffer.getInt(slot + 8) != 0 && !isMapped(record))
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (buffer.getInt(slot + 8) != 0 && !isBetter(result, record))
+            return false;
+        if (buffer.getInt(slot + 8) == 0 && buffer.getInt(COUNT_OFFSET) >= INDEX_SLOTS / 100 * MAX_LOAD_PERCENT) {
+            logger.warning("Deal database full, game #" + gameNumber + " not stored");
+            return false;
+        }
+
+        int length = result.status == Solver.Status.WON ? result.solution.length : 0;
+        long end = buffer.getLong(END_OFFSET);
+        long newEnd = end + RECORD_HEADER_SIZE + 2 * length;
+        if (newEnd > Integer.MAX_VALUE) {
+            logger.warning("Deal database full, game #" + gameNumber + " not stored");
+            return false;
+        }
+        if (newEnd > buffer.capacity())
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.min(Integer.MAX_VALUE, Math.max(newEnd, (long) buffer.capacity() + GROWTH)));
+
+        /* the record is written before the slot points to it */
+        int position = (int) end;
+        buffer.put(position, (byte) result.status.ordinal()).put(position + 1, (byte) 0)
+                .putShort(position + 2, (short) length);
+        for (int i = 0; i < length; i++) {
+            buffer.putShort(position + RECORD_HEADER_SIZE + 2 * i, (short) result.solution[i]);
+        }
+        buffer.putLong(END_OFFSET, newEnd);
+        buffer.putInt(slot + 12, position);
+        if (buffer.getInt(slot + 8) == 0) {
+            buffer.putLong(slot, gameNumber);
+            buffer.putInt(slot + 8, numberOfSuits);
+            buffer.putInt(COUNT_OFFSET, buffer.getInt(COUNT_OFFSET) + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Write the changes to the disk and close the database
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("Cannot close the deal database: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Check if a result is better than a stored one
+     */
+    private boolean isBetter(Solver.Result result, int record) {
+        byte status = buffer.get(record);
+        if (status == Solver.Status.UNKNOWN.ordinal())
+            return result.status != Solver.Status.UNKNOWN;
+        return status == Solver.Status.WON.ordinal() && result.status == Solver.Status.WON
+                && result.solution.length < buffer.getShort(record + 2);
+    }
+
+    /**
+     * Find the record of a deal
+     *
+     * @return position of the record, -1 if the deal is not in the database
+     */
+    private int find(int numberOfSuits, long gameNumber) {
+        int record;
+        lock.readLock().lock();
+        try {
+            int slot = slot(numberOfSuits, gameNumber);
+            if (buffer.getInt(slot + 8) == 0)
+                return -1;
+            record = buffer.getInt(slot + 12);
+            if (isMapped(record))
+                return record;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        /* another process appended the record, or part of it, after the end of the mapping */
+        lock.writeLock().lock();
+        try {
+            if (!isMapped(record))
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return isMapped(record) ? record : -1;
+        } catch (IOException e) {
+            logger.warning("Cannot map the deal database: " + e.getMessage());
+            return -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Check if a record, with its moves, is all in the mapping
+     *
+     * @param record position of the record
+     * @return true if the record can be read
+     */
+    private boolean isMapped(int record) {
+        if ((long) record + RECORD_HEADER_SIZE > buffer.capacity())
+            return false;
+        return (long) record + RECORD_HEADER_SIZE + 2 * buffer.getShort(record + 2) <= buffer.capacity();
+    }
+
+    /**
+     * Find the slot of a deal, or the free slot where to put it
+     *
+     * @return position of the slot in the file
+     */
+    private int slot(int numberOfSuits, long gameNumber) {
+        long hash = (gameNumber ^ (long) numberOfSuits << 56) * 0x9E3779B97F4A7C15L;
+        int index = (int) (hash >>> (64 - Integer.numberOfTrailingZeros(INDEX_SLOTS)));
+        while (true) {
+            int slot = HEADER_SIZE + index * SLOT_SIZE;
+            int suits = buffer.getInt(slot + 8);
+            if (suits == 0 || (suits == numberOfSuits && buffer.getLong(slot) == gameNumber))
+                return slot;
+            index = (index + 1) & (INDEX_SLOTS - 1);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package it.alerighi.spider;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deals of numbered games. The game number is the seed of the shuffle, so a game
+ * can be played again, shared and benchmarked, as "Game #123456" of the original
+ * Windows version.
+ * <p>
+ * The generator streams the initial positions of a range of game numbers on
+ * several threads. Every thread reuses its own deck and position, so no memory is
+ * allocated for each deal.
+ *
+ * @author Alessandro Righi
+ */
+public final class DealGenerator {
+
+    /**
+     * random game numbers are chosen from 1 to this value, any non negative number can be played
+     */
+    public static final long MAX_RANDOM_GAME_NUMBER = 1000000;
+
+    /**
+     * Receiver of the generated deals
+     */
+    public interface DealConsumer {
+        /**
+         * Called for each deal, by the thread that generated it. The position is
+         * reused for the next deal of the thread, so it must be copied to be kept.
+         *
+         * @param gameNumber game number of the deal
+         * @param position   initial position of the game
+         */
+        void accept(long gameNumber, Position position);
+    }
+
+    private final int numberOfSuits;
+
+    /**
+     * Create a generator
+     *
+     * @param numberOfSuits number of suits of the games (1, 2 or 4)
+     */
+    public DealGenerator(int numberOfSuits) {
+        if (numberOfSuits != 1 && numberOfSuits != 2 && numberOfSuits != 4)
+            throw new IllegalArgumentException("Number of suits must be 1, 2 or 4!");
+        this.numberOfSuits = numberOfSuits;
+    }
+
+    /**
+     * Shuffle the deck of a numbered game
+     *
+     * @param numberOfSuits number of suits of the game
+     * @param gameNumber    game number
+     * @param deck          array of {@link Position#NUMBER_OF_CARDS} where to put the cards
+     */
+    public static void shuffle(int numberOfSuits, long gameNumber, byte[] deck) {
+        int k = 0;
+        for (int n = 0; n < 8 / numberOfSuits; n++) {
+            for (int suit = 0; suit < numberOfSuits; suit++) {
+                for (int value = 1; value < 14; value++) {
+                    deck[k++] = Position.cardCode(suit, value);
+                }
+            }
+        }
+
+        /* Fisher-Yates shuffle */
+        SplittableRandom random = new SplittableRandom(gameNumber);
+        for (int i = deck.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte tmp = deck[i];
+            deck[i] = deck[j];
+            deck[j] = tmp;
+        }
+    }
+
+    /**
+     * Choose a random game number
+     *
+     * @return game number between 1 and {@link #MAX_RANDOM_GAME_NUMBER}
+     */
+    public static long randomGameNumber() {
+        return new SplittableRandom().nextLong(MAX_RANDOM_GAME_NUMBER) + 1;
+    }
+
+    /**
+     * Generate the initial positions of a range of games
+     *
+     * @param firstGameNumber first game number
+     * @param count           number of games
+     * @param threads         number of threads that generate the games
+     * @param consumer        receiver of the deals, called concurrently by the threads
+     */
+    public void generate(long firstGameNumber, long count, int threads, DealConsumer consumer) {
+        final int chunk = 4096;
+        AtomicLong next = new AtomicLong(firstGameNumber);
+        long end = firstGameNumber + count;
+
+        Runnable worker = () -> {
+            byte[] deck = new byte[Position.NUMBER_OF_CARDS];
+            Position position = new Position();
+            for (long start; (start = next.getAndAdd(chunk)) < end; ) {
+                for (long gameNumber = start; gameNumber < Math.min(start + chunk, end); gameNumber++) {
+                    shuffle(numberOfSuits, gameNumber, deck);
+                    position.dealFrom(deck);
+                    consumer.accept(gameNumber, position);
+                }
+            }
+        };
+
+        Thread[] workers = new Thread[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(worker, "deals-" + (i + 1));
+            workers[i].start();
+        }
+        worker.run();
+        for (Thread thread : workers) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Measure the deals generated per second with an increasing number of threads.
+     * Arguments: number of suits, number of deals.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int suits = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long count = args.length > 1 ? Long.parseLong(args[1]) : 10000000;
+
+        DealGenerator generator = new DealGenerator(suits);
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+            LongAdder checksum = new LongAdder();
+            long start = System.nanoTime();
+            generator.generate(1, count, threads, (gameNumber, position) -> checksum.add(position.getHash()));
+            long nanoseconds = System.nanoTime() - start;
+            System.out.printf("%d threads: %d deals in %d ms, %.0f deals/s (checksum %x)%n", threads, count,
+                    nanoseconds / 1000000, count * 1e9 / nanoseconds, checksum.sum());
+            if (threads == processors)
+                break;
+        }
+    }
+}
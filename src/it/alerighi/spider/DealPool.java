@@ -0,0 +1,335 @@
+package it.alerighi.spider;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Pool of numbered deals that the {@link Solver} has won, rated by difficulty, for
+ * each number of suits, so that a winnable deal can be started without waiting.
+ * <p>
+ * Low priority worker threads, one less than the processors and at most
+ * {@link #MAX_WORKERS}, solve random deals of the number of suits with the most
+ * free places, and put the deals won in their band, while it has less than
+ * {@link #CAPACITY} deals. A band that gets none of {@link #MAX_MISSES} deals in a
+ * row solved for its number of suits is given up, until one is found filling the
+ * other bands or the pool is opened again, so the workers don't keep solving deals
+ * for a band they can't fill. When all the
+ * bands still filled are full the workers wait for a deal to be taken. The results
+ * are also stored in the {@link DealDatabase}, if any.
+ * <p>
+ * The pool is saved to a small file, replaced with an atomic move, when the
+ * workers find or wait for a deal and when it's closed, so a deal taken just
+ * before a crash may be offered again.
+ *
+ * @author Alessandro Righi
+ */
+public final class DealPool {
+    private static final Logger logger = Logger.getGlobal();
+
+    static final String FILE_NAME = "deal.pool";
+
+    private static final int MAGIC = 0x53504450; /* "SPDP" */
+    private static final int VERSION = 1;
+
+    /**
+     * deals of each number of suits and difficulty
+     */
+    public static final int CAPACITY = 16;
+
+    public static final int MAX_WORKERS = 2;
+
+    /**
+     * budget of the solver for each deal
+     */
+    private static final long MAX_NODES = 300000;
+    private static final long MAX_MILLISECONDS = 5000;
+    private static final int TABLE_BITS = 20;
+
+    /**
+     * deals in a row of a number of suits after which a band that got none of them
+     * is given up, many times the deals solved for each one in the rarest band
+     */
+    private static final int MAX_MISSES = 500;
+
+    /**
+     * numbers of suits of the deals
+     */
+    private static final int[] SUITS = {1, 2, 4};
+
+    /**
+     * Difficulty of a winnable deal
+     */
+    public enum Difficulty {
+        EASY, NORMAL, HARD;
+
+        /**
+         * positions searched for each move of the solution below which a deal is easy
+         * or normal, for each number of suits of {@link #SUITS}
+         */
+        private static final int[] EASY_NODES_PER_MOVE = {2, 2, 25};
+        private static final int[] NORMAL_NODES_PER_MOVE = {20, 50, 120};
+
+        /**
+         * Rate a deal won by the solver from the positions it searched for each move
+         * of the solution: an easy deal is won almost without going back
+         *
+         * @param numberOfSuits number of suits of the deal
+         * @param result        result of the solver, won
+         * @return difficulty of the deal
+         */
+        static Difficulty of(int numberOfSuits, Solver.Result result) {
+            int suits = band(numberOfSuits, EASY) / values().length;
+            long nodesPerMove = result.nodes / Math.max(1, result.solution.length);
+            if (nodesPerMove < EASY_NODES_PER_MOVE[suits])
+                return EASY;
+            return nodesPerMove < NORMAL_NODES_PER_MOVE[suits] ? NORMAL : HARD;
+        }
+    }
+
+    private final Path path;
+    private final DealDatabase database;
+
+    /**
+     * game numbers of each band, the index of a band is the index of the number of
+     * suits in {@link #SUITS} times the difficulties plus the difficulty
+     */
+    private final long[][] gameNumbers = new long[SUITS.length * Difficulty.values().length][CAPACITY];
+    private final int[] counts = new int[gameNumbers.length];
+
+    /**
+     * deals solved in a row for the number of suits of each band that didn't go in it
+     */
+    private final int[] misses = new int[gameNumbers.length];
+    private boolean dirty;
+    private boolean closed;
+
+    private DealPool(Path path, DealDatabase database) {
+        this.path = path;
+        this.database = database;
+    }
+
+    /**
+     * Open the pool of a directory and start to fill it
+     *
+     * @param directory directory of the pool
+     * @param database  database where to store the results of the solver, null if none
+     * @return the pool
+     * @throws IOException if the directory can't be created
+     */
+    public static DealPool open(Path directory, DealDatabase database) throws IOException {
+        Files.createDirectories(directory);
+        DealPool pool = new DealPool(directory.resolve(FILE_NAME), database);
+        pool.read();
+        int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(pool::fill, "deal-pool-" + i);
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+        return pool;
+    }
+
+    /**
+     * Take a deal from the pool
+     *
+     * @param numberOfSuits number of suits of the deal
+     * @param difficulty    difficulty of the deal
+     * @return game number of the deal, -1 if there is none
+     */
+    public synchronized long take(int numberOfSuits, Difficulty difficulty) {
+        int band = band(numberOfSuits, difficulty);
+        if (counts[band] == 0)
+            return -1;
+        dirty = true;
+        notifyAll();
+        return gameNumbers[band][--counts[band]];
+    }
+
+    /**
+     * Get the number of deals in the pool
+     *
+     * @param numberOfSuits number of suits of the deals
+     * @param difficulty    difficulty of the deals
+     * @return number of deals
+     */
+    public synchronized int available(int numberOfSuits, Difficulty difficulty) {
+        return counts[band(numberOfSuits, difficulty)];
+    }
+
+    /**
+     * Check if the deals of a band are still searched, or it was given up
+     *
+     * @param numberOfSuits number of suits of the deals
+     * @param difficulty    difficulty of the deals
+     * @return false if it was given up, none of the many deals solved last being of this difficulty
+     */
+    public synchronized boolean isFilling(int numberOfSuits, Difficulty difficulty) {
+        return misses[band(numberOfSuits, difficulty)] < MAX_MISSES;
+    }
+
+    /**
+     * Stop the workers and save the pool
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+        saveIfDirty();
+    }
+
+    private static int band(int numberOfSuits, Difficulty difficulty) {
+        for (int i = 0; i < SUITS.length; i++) {
+            if (SUITS[i] == numberOfSuits)
+                return i * Difficulty.values().length + difficulty.ordinal();
+        }
+        throw new IllegalArgumentException("Number of suits must be 1, 2 or 4!");
+    }
+
+    /**
+     * Solve random deals and add the ones won, until the pool is closed
+     */
+    private void fill() {
+        Solver solver = new Solver(1, MAX_NODES, MAX_MILLISECONDS, TABLE_BITS, Thread.MIN_PRIORITY);
+        Game game = new Game();
+        try {
+            for (int suits; (suits = nextNumberOfSuits()) > 0; ) {
+                long gameNumber = DealGenerator.randomGameNumber();
+                game.newGame(suits, gameNumber);
+                Solver.Result result = solver.solve(game);
+                if (database != null) {
+                    try {
+                        database.put(suits, gameNumber, result);
+                    } catch (IOException e) {
+                        logger.warning("Cannot store game #" + gameNumber + " in the deal database: " + e.getMessage());
+                    }
+                }
+                add(suits, result.status == Solver.Status.WON ? Difficulty.of(suits, result) : null, gameNumber);
+            }
+        } finally {
+            solver.shutdown();
+        }
+    }
+
+    /**
+     * Save the pool if needed, and wait until a band still filled is not full
+     *
+     * @return number of suits of the deals to solve, the one with the most free places
+     * in the bands still filled, 0 if closed
+     */
+    private synchronized int nextNumberOfSuits() {
+        while (!closed) {
+            saveIfDirty();
+            int best = 0;
+            int bestFree = 0;
+            for (int i = 0; i < SUITS.length; i++) {
+                int free = 0;
+                for (Difficulty difficulty : Difficulty.values()) {
+                    int band = band(SUITS[i], difficulty);
+                    if (misses[band] < MAX_MISSES)
+                        free += CAPACITY - counts[band];
+                }
+                if (free > bestFree) {
+                    best = SUITS[i];
+                    bestFree = free;
+                }
+            }
+            if (best != 0)
+                return best;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Add a deal solved to its band, if not full, and count it as missed by the
+     * other bands of its number of suits that are not full
+     *
+     * @param numberOfSuits number of suits of the deal
+     * @param difficulty    difficulty of the deal, null if it wasn't won
+     * @param gameNumber    game number of the deal
+     */
+    private synchronized void add(int numberOfSuits, Difficulty difficulty, long gameNumber) {
+        for (Difficulty other : Difficulty.values()) {
+            int band = band(numberOfSuits, other);
+            if (counts[band] == CAPACITY)
+                continue;
+            if (other == difficulty) {
+                gameNumbers[band][counts[band]++] = gameNumber;
+                misses[band] = 0;
+                dirty = true;
+            } else if (misses[band] < MAX_MISSES && ++misses[band] == MAX_MISSES) {
+                logger.info("No " + other.name().toLowerCase() + " deal with " + numberOfSuits + " suits in the last "
+                        + MAX_MISSES + " solved, no more searched");
+            }
+        }
+    }
+
+    /**
+     * Read the saved pool, if any. A pool that can't be read is left empty
+     */
+    private synchronized void read() {
+        if (!Files.exists(path))
+            return;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException("Invalid deal pool");
+            for (int band = 0; band < gameNumbers.length; band++) {
+                int count = buffer.getInt();
+                if (count < 0 || count > CAPACITY)
+                    throw new IOException("Invalid deal pool");
+                for (int i = 0; i < count; i++) {
+                    gameNumbers[band][i] = buffer.getLong();
+                }
+                counts[band] = count;
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            logger.warning("Cannot read the deal pool, it will be filled again: " + e);
+            Arrays.fill(counts, 0);
+        }
+    }
+
+    /**
+     * Save the pool, if it changed since it was saved
+     */
+    private void saveIfDirty() {
+        if (!dirty)
+            return;
+        ByteBuffer buffer = ByteBuffer.allocate(8 + gameNumbers.length * (4 + 8 * CAPACITY));
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (int band = 0; band < gameNumbers.length; band++) {
+            buffer.putInt(counts[band]);
+            for (int i = 0; i < counts[band]; i++) {
+                buffer.putLong(gameNumbers[band][i]);
+            }
+        }
+        buffer.flip();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.warning("Cannot save the deal pool: " + e.getMessage());
+        }
+    }
+}
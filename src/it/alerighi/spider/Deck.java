@@ -1,12 +1,10 @@
 package it.alerighi.spider;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Logger;
 
 /**
- * Class that reppresent a game deck
+ * Class that reppresent a game deck, as a view over a column of a {@link Position}
  *
  * @author Alessandro Righi
  */
@@ -16,20 +14,26 @@ public final class Deck {
     public static final int SPACE_BETWEEN_CARDS = 25;
     public static final int SPACE_BETWEEN_CARDS_COVERED = 10;
 
-    private Point position;
+    /**
+     * deck position, in primitive fields so that painting doesn't allocate
+     */
+    private int x;
+    private int y;
     private int index;
-    private int flaggedCardIndex;
+    private int flaggedCardIndex = -1;
 
-    private final List<Card> cards;
+    private final Position cards;
+    private final int column;
 
     /**
      * Create a new card deck
      *
-     * @param list list of numberOfCards to insert in the deck
+     * @param cards  position that holds the cards
+     * @param column column of the position with the cards of the deck
      */
-    public Deck(List<Card> list) {
-        cards = new ArrayList<>(list);
-        getTopCard().setVisible(true);
+    public Deck(Position cards, int column) {
+        this.cards = cards;
+        this.column = column;
     }
 
     /**
@@ -56,7 +60,7 @@ public final class Deck {
      * @return first card of the deck, null if deck is empty
      */
     public Card getFirstCard() {
-        return cards.isEmpty() ? null : cards.get(0);
+        return isEmpty() ? null : getCardByIndex(0);
     }
 
     /**
@@ -65,39 +69,71 @@ public final class Deck {
      * @return top card of the deck, null if deck empty
      */
     public Card getTopCard() {
-        return cards.isEmpty() ? null : cards.get(cards.size() - 1);
+        return isEmpty() ? null : getCardByIndex(numberOfCards() - 1);
     }
 
     /**
      * Draws the card deck in the specified position
      *
      * @param graphics graphics area
-     * @param position deck position
+     * @param x        x coordinate of the deck
+     * @param y        y coordinate of the deck
      */
-    public void paint(Graphics graphics, Point position) {
-        setPosition(position);
-        if (cards.isEmpty()) {
+    public void paint(Graphics graphics, int x, int y) {
+        setPosition(x, y);
+        paint(graphics);
+    }
+
+    /**
+     * Draws the card deck in the current position
+     *
+     * @param graphics graphics area
+     */
+    public void paint(Graphics graphics) {
+        if (isEmpty()) {
             graphics.setColor(GamePanel.SCORE_BOX_COLOR);
-            graphics.fillRect(position.x, position.y, Card.WIDTH, Card.HEIGHT);
+            graphics.fillRect(x, y, Card.WIDTH, Card.HEIGHT);
             graphics.setColor(Color.BLACK);
-            graphics.drawRect(position.x, position.y, Card.WIDTH, Card.HEIGHT);
+            graphics.drawRect(x, y, Card.WIDTH, Card.HEIGHT);
         } else {
-            for (int i = 0; i < cards.size(); i++) {
-                Card card = cards.get(i);
-                card.paint(graphics, position);
-                int space = i == flaggedCardIndex ? 20 : 0;
-                position.translate(0, card.isVisible() ? SPACE_BETWEEN_CARDS + space : SPACE_BETWEEN_CARDS_COVERED);
+            int cardY = y;
+            int numberOfCards = numberOfCards();
+            for (int i = 0; i < numberOfCards; i++) {
+                byte card = cards.getCard(column, i);
+                Card.paint(graphics, card, x, cardY);
+                cardY += getSpaceAfter(i, card);
             }
         }
     }
 
+    private int getSpaceAfter(int index, byte card) {
+        if (!Position.isFaceUp(card))
+            return SPACE_BETWEEN_CARDS_COVERED;
+        return index == flaggedCardIndex ? SPACE_BETWEEN_CARDS + 20 : SPACE_BETWEEN_CARDS;
+    }
+
     /**
-     * Draws the card deck in the current position
+     * Get the y coordinate of a card of the deck
      *
-     * @param graphics graphics area
+     * @param index index of the card
+     * @return y coordinate of the card
      */
-    public void paint(Graphics graphics) {
-        paint(graphics, position);
+    public int getCardY(int index) {
+        int cardY = y;
+        for (int i = 0; i < index; i++) {
+            cardY += getSpaceAfter(i, cards.getCard(column, i));
+        }
+        return cardY;
+    }
+
+    /**
+     * Get the height of the deck as drawn, from the top of its first card to the
+     * bottom of its last card
+     *
+     * @return height of the deck
+     */
+    public int getHeight() {
+        return isEmpty() ? Card.HEIGHT : getCardY(numberOfCards() - 1) - y + Card.HEIGHT;
     }
 
     /**
@@ -107,12 +143,7 @@ public final class Deck {
      * @return true only if is ordered
      */
     public boolean isOrderdered(int index) {
-        for (int i = index; i < cards.size() - 1; i++) {
-            if (cards.get(i).suit != cards.get(i + 1).suit ||
-                    cards.get(i).value != cards.get(i + 1).value + 1)
-                return false;
-        }
-        return true;
+        return cards.isOrdered(column, index);
     }
 
     /**
@@ -125,26 +156,28 @@ public final class Deck {
     public Deck getSubDeck(int index, boolean pop) {
         if (!isOrderdered(index))
             return null;
-        Deck deck = new Deck(cards.subList(index, cards.size()));
+        Position subDeck = new Position();
+        int numberOfCards = numberOfCards();
+        for (int i = index; i < numberOfCards; i++) {
+            subDeck.push(0, cards.getCard(column, i));
+        }
         if (pop)
-            cards.subList(index, cards.size()).clear();
-        return deck;
+            cards.pop(column, numberOfCards - index);
+        return new Deck(subDeck, 0);
     }
 
     private int getCardIndexFromLocation(Point location) {
-        Card topCard = getTopCard();
-        if (topCard == null)
+        if (isEmpty())
             return -1;
-        int y = topCard.getPosition().y;
-        int x = position.x;
-        for (int i = cards.size() - 1; i >= 0; i--) {
-            Card card = cards.get(i);
+        int y = getCardY(numberOfCards() - 1);
+        for (int i = numberOfCards() - 1; i >= 0; i--) {
+            boolean visible = Position.isFaceUp(cards.getCard(column, i));
             if (location.x > x
                     && location.x < x + Card.WIDTH
                     && location.y > y
-                    && location.y < y + Card.HEIGHT && card.isVisible())
+                    && location.y < y + Card.HEIGHT && visible)
                 return i;
-            y -= card.isVisible() ? SPACE_BETWEEN_CARDS : SPACE_BETWEEN_CARDS_COVERED;
+            y -= visible ? SPACE_BETWEEN_CARDS : SPACE_BETWEEN_CARDS_COVERED;
         }
         return -1;
     }
@@ -165,11 +198,11 @@ public final class Deck {
      * @return the deck if exists, else null
      */
     public Deck selectSubDeck(Point getPosition, boolean pop) {
-        if (cards.isEmpty()) {
-            if (getPosition.x > position.x
-                    && getPosition.x < position.x + Card.WIDTH
-                    && getPosition.y > position.y
-                    && getPosition.y < Card.HEIGHT + position.y)
+        if (isEmpty()) {
+            if (getPosition.x > x
+                    && getPosition.x < x + Card.WIDTH
+                    && getPosition.y > y
+                    && getPosition.y < Card.HEIGHT + y)
                 return this;
             else
                 return null;
@@ -177,11 +210,11 @@ public final class Deck {
         int i = getCardIndexFromLocation(getPosition);
         if (i < 0)
             return null;
-        Card card = getCardByIndex(i);
+        int cardY = getCardY(i);
         Deck deck = getSubDeck(i, pop);
 
         if (deck != null) {
-            deck.setPosition(card.getPosition());
+            deck.setPosition(x, cardY);
             deck.setIndex(index);
         }
 
@@ -194,7 +227,18 @@ public final class Deck {
      * @param position new position
      */
     public void setPosition(Point position) {
-        this.position = new Point(position);
+        setPosition(position.x, position.y);
+    }
+
+    /**
+     * Set deck position
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     */
+    public void setPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
     }
 
     /**
@@ -203,7 +247,25 @@ public final class Deck {
      * @return position
      */
     public Point getPosition() {
-        return new Point(position);
+        return new Point(x, y);
+    }
+
+    /**
+     * Get X coordinate
+     *
+     * @return x coordinate
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Get Y coordinate
+     *
+     * @return y coordinate
+     */
+    public int getY() {
+        return y;
     }
 
     /**
@@ -213,7 +275,17 @@ public final class Deck {
      * @return card
      */
     public Card getCardByIndex(int index) {
-        return cards.get(index);
+        return Card.fromCode(cards.getCard(column, index));
+    }
+
+    /**
+     * Check if the card at the specified index is face up
+     *
+     * @param index index of the card
+     * @return true only if the card is face up
+     */
+    public boolean isFaceUp(int index) {
+        return Position.isFaceUp(cards.getCard(column, index));
     }
 
     /**
@@ -222,7 +294,7 @@ public final class Deck {
      * @return number of card in the deck
      */
     public int numberOfCards() {
-        return cards.size();
+        return cards.numberOfCards(column);
     }
 
     /**
@@ -231,16 +303,17 @@ public final class Deck {
      * @return true only if deck is empty
      */
     public boolean isEmpty() {
-        return cards.isEmpty();
+        return numberOfCards() == 0;
     }
 
     /**
      * Add a card to the deck
      *
-     * @param card card to add
+     * @param card   card to add
+     * @param faceUp true if the card is face up
      */
-    public void addCard(Card card) {
-        cards.add(card);
+    public void addCard(Card card, boolean faceUp) {
+        cards.push(column, (byte) (card.getCode() | (faceUp ? Position.FACE_UP : 0)));
     }
 
     /**
@@ -251,16 +324,17 @@ public final class Deck {
     public void appendDeck(Deck deck) {
         if (deck == null)
             return;
-        cards.addAll(deck.cards);
+        for (int i = 0; i < deck.numberOfCards(); i++) {
+            cards.push(column, deck.cards.getCard(deck.column, i));
+        }
     }
 
     @Override
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
-        for (Card card : cards) {
-            stringBuilder.append(card.toString());
+        for (int i = 0; i < numberOfCards(); i++) {
+            stringBuilder.append(getCardByIndex(i).toString());
         }
         return stringBuilder.toString();
     }
 }
-
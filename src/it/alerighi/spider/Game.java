@@ -0,0 +1,812 @@
+package it.alerighi.spider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Headless game engine. Holds the tableau, the stock, the completed runs, the
+ * move log and the score, and implements all the rules of the game.
+ * <p>
+ * The cards are kept in a {@link Position}, so this class doesn't depend on AWT
+ * or Swing and can be used to simulate games without a GUI.
+ *
+ * @author Alessandro Righi
+ */
+public final class Game {
+
+    public static final int INITIAL_SCORE = 500;
+    public static final int COMPLETED_RUN_BONUS = 100;
+
+    /**
+     * maximum number of possible moves: at most 13 runs from each column, to any other column
+     */
+    public static final int MAX_MOVES = Position.NUMBER_OF_COLUMNS * (Position.NUMBER_OF_COLUMNS - 1) * 13;
+
+    /**
+     * encoded move that deals a row of cards, see {@link #doMove(int)}
+     */
+    public static final int DEAL_CARDS = 0;
+
+    private static final int ALL_COLUMNS = (1 << Position.NUMBER_OF_COLUMNS) - 1;
+    private static final int SAME_SUIT = 1 << 12;
+
+    /**
+     * cards of the tableau, of the stock and completed runs
+     */
+    private Position position = new Position();
+
+    /**
+     * types of the entries of the move log, with the flag of an entry that turned
+     * face up a card of its source column
+     */
+    private static final int LOG_MOVE = 1 << 12;
+    private static final int LOG_DEAL = 2 << 12;
+    private static final int LOG_RUN = 3 << 12;
+    private static final int LOG_TYPE = 3 << 12;
+    private static final int LOG_REVEALED = 1 << 14;
+
+    /**
+     * move log: one int for each entry, the move encoded as in {@link #encodeMove(int, int, int)}
+     * (for a completed run, the column it was removed from) plus its type and flag. A
+     * move or a deal is followed by the entries of the runs it completed.
+     * The entries after {@link #logSize} can be redone, up to {@link #logEnd}.
+     */
+    private int[] log = new int[64];
+    private int logSize;
+    private int logEnd;
+
+    /**
+     * game score
+     */
+    private int score;
+
+    /**
+     * number of suits of the game, 0 if no game was started
+     */
+    private int numberOfSuits;
+
+    /**
+     * number of the game, the seed of its deal
+     */
+    private long gameNumber;
+
+    /**
+     * possible moves out of each column, as found by the last call of {@link #generateMoves(int[])},
+     * encoded as in {@link #encodeMove(int, int, int)} plus {@link #SAME_SUIT} if the move is
+     * on a card of the same suit or on an empty column
+     */
+    private final int[][] movesFrom = new int[Position.NUMBER_OF_COLUMNS][(Position.NUMBER_OF_COLUMNS - 1) * 13];
+
+    /**
+     * number of possible moves out of each column
+     */
+    private final int[] numberOfMovesFrom = new int[Position.NUMBER_OF_COLUMNS];
+
+    /**
+     * bitmask of the columns changed since the last call of {@link #generateMoves(int[])}
+     */
+    private int changedColumns = ALL_COLUMNS;
+
+    /**
+     * top card of each column (without {@link Position#FACE_UP}) when the masks were
+     * last updated, -1 if the column was empty
+     */
+    private final int[] topCards = {-1, -1, -1, -1, -1, -1, -1, -1, -1, -1};
+
+    /**
+     * for each card, suit * 13 + value - 1, bitmask of the columns that have it on top
+     */
+    private final int[] cardMasks = new int[52];
+
+    /**
+     * for each value - 1, bitmask of the columns that have a card of that value on top
+     */
+    private final int[] valueMasks = new int[13];
+
+    /**
+     * bitmask of the empty columns
+     */
+    private int emptyMask = ALL_COLUMNS;
+
+    /**
+     * Create a game, with no cards until {@link #newGame(int, long)} is called
+     */
+    public Game() {
+    }
+
+    /**
+     * Create a copy of a game, in the same position and with the same score.
+     * The copy starts with an empty move log, so its moves before the copy can't be undone.
+     *
+     * @param game game to copy
+     */
+    public Game(Game game) {
+        position = new Position(game.position);
+        numberOfSuits = game.numberOfSuits;
+        gameNumber = game.gameNumber;
+        score = game.score;
+    }
+
+    /**
+     * Start a new game
+     *
+     * @param numberOfSuits number of suits of the game (1, 2 or 4)
+     * @param gameNumber    number of the game, the seed of the shuffle of the cards
+     */
+    public void newGame(int numberOfSuits, long gameNumber) {
+        if (numberOfSuits != 1 && numberOfSuits != 2 && numberOfSuits != 4)
+            throw new IllegalArgumentException("Number of suits must be 1, 2 or 4!");
+        this.numberOfSuits = numberOfSuits;
+        this.gameNumber = gameNumber;
+
+        byte[] deck = new byte[Position.NUMBER_OF_CARDS];
+        DealGenerator.shuffle(numberOfSuits, gameNumber, deck);
+        position = Position.deal(deck);
+        changedColumns = ALL_COLUMNS;
+        logSize = logEnd = 0;
+        score = INITIAL_SCORE;
+    }
+
+    /**
+     * Restore a saved game as it was, without playing its moves again
+     *
+     * @param numberOfSuits number of suits of the game (1, 2 or 4)
+     * @param gameNumber    number of the game, -1 if the game has no number
+     * @param score         score
+     * @param position      position, that is not copied
+     * @param log           entries of the move log, as returned by {@link #getLogEntry(int)}
+     * @param logSize       number of entries done, the others can be redone
+     * @throws IllegalArgumentException if the cards are not those of a game, or the log is not valid
+     */
+    void restore(int numberOfSuits, long gameNumber, int score, Position position, int[] log, int logSize) {
+        if (numberOfSuits != 1 && numberOfSuits != 2 && numberOfSuits != 4)
+            throw new IllegalArgumentException("Number of suits must be 1, 2 or 4!");
+        if (logSize < 0 || logSize > log.length)
+            throw new IllegalArgumentException("Invalid size of the move log");
+
+        /* each card of the suits in play appears the same number of times */
+        int[] count = new int[52];
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            for (int j = 0; j < position.numberOfCards(i); j++) {
+                int card = position.getCard(i, j) & ~Position.FACE_UP;
+                if (card < 0 || card >= count.length)
+                    throw new IllegalArgumentException("Invalid card in column " + i);
+                count[card]++;
+            }
+        }
+        for (int row = 0; row < position.getRemainingDeals(); row++) {
+            for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+                int card = position.getStockCard(row, i);
+                if (card < 0 || card >= count.length)
+                    throw new IllegalArgumentException("Invalid card in the stock");
+                count[card]++;
+            }
+        }
+        for (int i = 0; i < position.getNumberOfCompletedRuns(); i++) {
+            for (int value = 1; value <= 13; value++) {
+                count[Position.cardCode(position.getCompletedRunSuit(i), value)]++;
+            }
+        }
+        for (int card = 0; card < count.length; card++) {
+            if (count[card] != (Position.suitOf(card) < numberOfSuits ? 8 / numberOfSuits : 0))
+                throw new IllegalArgumentException("The cards are not those of a game with " + numberOfSuits + " suits");
+        }
+
+        for (int i = 0; i < log.length; i++) {
+            int entry = log[i];
+            int type = entry & LOG_TYPE;
+            if ((entry & ~(LOG_TYPE | LOG_REVEALED | 0xFFF)) != 0 || type == 0
+                    /* a completed run is undone and redone with the move before it */
+                    || type == LOG_RUN && (i == 0 || i == logSize)
+                    || type == LOG_MOVE && (moveFrom(entry) >= Position.NUMBER_OF_COLUMNS || moveTo(entry) >= Position.NUMBER_OF_COLUMNS
+                    || moveNumberOfCards(entry) == 0 || moveNumberOfCards(entry) > 13)
+                    || type == LOG_RUN && moveFrom(entry) >= Position.NUMBER_OF_COLUMNS)
+                throw new IllegalArgumentException("Invalid entry of the move log");
+        }
+
+        /* undone, the moves of the log must be legal and lead back to the position */
+        Game replay = new Game();
+        replay.numberOfSuits = numberOfSuits;
+        replay.position = new Position(position);
+        replay.log = Arrays.copyOf(log, Math.max(64, log.length));
+        replay.logSize = logSize;
+        replay.logEnd = log.length;
+        replay.changedColumns = ALL_COLUMNS;
+        try {
+            while (replay.undoLastMove()) {
+            }
+            for (int i = 0; i < log.length; i++) {
+                if (i == logSize && !replay.position.equals(position))
+                    throw new IllegalArgumentException("The move log doesn't lead to the position");
+                int type = log[i] & LOG_TYPE;
+                if (type != LOG_RUN && !replay.doMove(type == LOG_DEAL ? DEAL_CARDS : log[i] & 0xFFF))
+                    throw new IllegalArgumentException("Illegal move in the move log");
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid move log", e);
+        }
+        if (logSize == log.length && !replay.position.equals(position)
+                || !Arrays.equals(Arrays.copyOf(replay.log, replay.logSize), log))
+            throw new IllegalArgumentException("The move log doesn't lead to the position");
+
+        this.numberOfSuits = numberOfSuits;
+        this.gameNumber = gameNumber;
+        this.score = score;
+        this.position = position;
+        this.log = Arrays.copyOf(log, Math.max(64, log.length));
+        this.logSize = logSize;
+        this.logEnd = log.length;
+        changedColumns = ALL_COLUMNS;
+    }
+
+    /**
+     * Get an entry of the move log, to save the game
+     *
+     * @param index index of the entry, less than {@link #getLogEnd()}
+     * @return the entry, that fits in 15 bits
+     */
+    int getLogEntry(int index) {
+        return log[index];
+    }
+
+    /**
+     * Get the number of entries of the move log, including those that can be redone
+     *
+     * @return number of entries
+     */
+    int getLogEnd() {
+        return logEnd;
+    }
+
+    /**
+     * Get the number of the current game
+     *
+     * @return game number, -1 if the game has no number
+     */
+    public long getGameNumber() {
+        return gameNumber;
+    }
+
+    /**
+     * Get the number of suits of the current game
+     *
+     * @return number of suits, 0 if no game was started
+     */
+    public int getNumberOfSuits() {
+        return numberOfSuits;
+    }
+
+    /**
+     * Get the current position. It must not be modified, use the methods of the game instead.
+     *
+     * @return current position
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Get the Zobrist hash of the current position, updated incrementally by every move
+     *
+     * @return 64 bit hash
+     */
+    public long getHash() {
+        return position.getHash();
+    }
+
+    /**
+     * Get the number of cards in a column
+     *
+     * @param column column index
+     * @return number of cards
+     */
+    public int numberOfCards(int column) {
+        return position.numberOfCards(column);
+    }
+
+    /**
+     * Get a card of a column
+     *
+     * @param column column index
+     * @param index  index of the card, 0 is the bottom card
+     * @return card code
+     */
+    public byte getCard(int column, int index) {
+        return position.getCard(column, index);
+    }
+
+    /**
+     * Get the top card of a column
+     *
+     * @param column column index
+     * @return card code, -1 if the column is empty
+     */
+    public int getTopCard(int column) {
+        return position.getTopCard(column);
+    }
+
+    /**
+     * Get the number of remaining rows to deal
+     *
+     * @return remaining deals [0, 5]
+     */
+    public int getRemainingDeals() {
+        return position.getRemainingDeals();
+    }
+
+    /**
+     * Get the number of completed runs removed from the tableau
+     *
+     * @return completed runs [0, 8]
+     */
+    public int getNumberOfCompletedRuns() {
+        return position.getNumberOfCompletedRuns();
+    }
+
+    /**
+     * Get the game score
+     *
+     * @return score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Get the number of moves in the move log
+     *
+     * @return number of moves
+     */
+    public int getNumberOfMoves() {
+        return logSize;
+    }
+
+    /**
+     * Indicate if the game is ended (all runs completed)
+     *
+     * @return true only if the game is ended
+     */
+    public boolean isEnded() {
+        return position.getNumberOfCompletedRuns() == Position.RUNS_TO_WIN;
+    }
+
+    /**
+     * Check if a move is valid. A move is valid if the lower card
+     * have a value that is equal to the value of the upper card - 1,
+     * if exists.
+     *
+     * @param upperCard upper card code, -1 if none
+     * @param lowerCard lower card code
+     * @return true only if the move is valid
+     */
+    private static boolean validMove(int upperCard, int lowerCard) {
+        return upperCard < 0 || Position.valueOf(upperCard) - Position.valueOf(lowerCard) == 1;
+    }
+
+    /**
+     * Check if some cards can be moved from a column to another
+     *
+     * @param from          source column
+     * @param to            destination column
+     * @param numberOfCards number of cards to move from the top of the source column
+     * @return true only if the move is legal
+     */
+    public boolean canMove(int from, int to, int numberOfCards) {
+        if (from == to || numberOfCards <= 0 || numberOfCards > position.numberOfCards(from))
+            return false;
+        int index = position.numberOfCards(from) - numberOfCards;
+        return position.isOrdered(from, index) && validMove(position.getTopCard(to), position.getCard(from, index));
+    }
+
+    /**
+     * Move cards from a column to another, then remove the completed runs
+     *
+     * @param from          source column
+     * @param to            destination column
+     * @param numberOfCards number of cards to move from the top of the source column
+     * @return true if the move was done, false if it is not legal
+     */
+    public boolean moveCards(int from, int to, int numberOfCards) {
+        if (!canMove(from, to, numberOfCards))
+            return false;
+        logEnd = logSize; /* a new move drops the moves that could be redone */
+        applyMove(from, to, numberOfCards);
+        return true;
+    }
+
+    private void applyMove(int from, int to, int numberOfCards) {
+        position.move(from, to, numberOfCards);
+        log(encodeMove(from, to, numberOfCards) | LOG_MOVE | (position.revealTopCard(from) ? 0 : LOG_REVEALED));
+        changedColumns |= 1 << from | 1 << to;
+        score -= 1;
+        checkAndRemoveRuns(1 << to);
+    }
+
+    /**
+     * Add an entry to the move log
+     *
+     * @param entry entry of the log
+     */
+    private void log(int entry) {
+        if (logSize == log.length)
+            log = Arrays.copyOf(log, logSize * 2);
+        log[logSize++] = entry;
+        if (logSize > logEnd)
+            logEnd = logSize;
+    }
+
+    /**
+     * Check if a row of cards can be dealt: there must be remaining rows
+     * and no empty column
+     *
+     * @return true only if cards can be dealt
+     */
+    public boolean canDeal() {
+        if (position.getRemainingDeals() <= 0)
+            return false;
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            if (position.numberOfCards(i) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deal a row of cards, then remove the completed runs
+     *
+     * @return true if the cards were dealt
+     */
+    public boolean dealCards() {
+        if (!canDeal())
+            return false;
+        logEnd = logSize;
+        applyDeal();
+        return true;
+    }
+
+    private void applyDeal() {
+        score -= 1;
+        position.dealRow();
+        log(LOG_DEAL);
+        changedColumns = ALL_COLUMNS;
+        checkAndRemoveRuns(ALL_COLUMNS);
+    }
+
+    /**
+     * Do an encoded move
+     *
+     * @param move move encoded as in {@link #encodeMove(int, int, int)}, or {@link #DEAL_CARDS}
+     * @return true if the move was done, false if it is not legal
+     */
+    public boolean doMove(int move) {
+        if (move == DEAL_CARDS)
+            return dealCards();
+        return moveCards(moveFrom(move), moveTo(move), moveNumberOfCards(move));
+    }
+
+    /**
+     * Undo last move, with the runs it completed. The move can be redone with
+     * {@link #redoMove()} until another move is done.
+     *
+     * @return true if a move was undone
+     */
+    public boolean undoLastMove() {
+        if (logSize == 0)
+            return false;
+
+        /* the completed runs first, then the move that completed them */
+        int entry;
+        while (((entry = log[--logSize]) & LOG_TYPE) == LOG_RUN) {
+            int column = moveFrom(entry);
+            if ((entry & LOG_REVEALED) != 0)
+                position.hideTopCard(column);
+            position.restoreRun(column);
+            changedColumns |= 1 << column;
+        }
+
+        score -= 1;
+        if ((entry & LOG_TYPE) == LOG_DEAL) {
+            position.undealRow();
+            changedColumns = ALL_COLUMNS;
+        } else {
+            int from = moveFrom(entry);
+            int to = moveTo(entry);
+            if ((entry & LOG_REVEALED) != 0)
+                position.hideTopCard(from);
+            position.move(to, from, moveNumberOfCards(entry));
+            changedColumns |= 1 << from | 1 << to;
+        }
+        return true;
+    }
+
+    /**
+     * Check if there is an undone move that can be redone
+     *
+     * @return true only if a move can be redone
+     */
+    public boolean canRedo() {
+        return logSize < logEnd;
+    }
+
+    /**
+     * Redo the last move undone, with the runs it completed
+     *
+     * @return true if a move was redone
+     */
+    public boolean redoMove() {
+        if (!canRedo())
+            return false;
+        int entry = log[logSize];
+        if ((entry & LOG_TYPE) == LOG_DEAL)
+            applyDeal();
+        else
+            applyMove(moveFrom(entry), moveTo(entry), moveNumberOfCards(entry));
+        return true;
+    }
+
+    /**
+     * Check if is possible to remove a run and if it is remove it. A run is complete
+     * when the ordered run on top of a column is 13 cards long.
+     *
+     * @param columns bitmask of the columns to check
+     */
+    private void checkAndRemoveRuns(int columns) {
+        for (int j = 0; j < Position.NUMBER_OF_COLUMNS; j++) {
+            if ((columns & 1 << j) != 0 && position.getRunLength(j) == 13) {
+                position.removeRun(j);
+                log(j | LOG_RUN | (position.revealTopCard(j) ? 0 : LOG_REVEALED));
+                changedColumns |= 1 << j;
+                score += COMPLETED_RUN_BONUS;
+            }
+        }
+    }
+
+    /**
+     * Encode a move in an int
+     *
+     * @param from          source column
+     * @param to            destination column
+     * @param numberOfCards number of cards to move
+     * @return the move, from + 16 * to + 256 * numberOfCards
+     */
+    public static int encodeMove(int from, int to, int numberOfCards) {
+        return from | to << 4 | numberOfCards << 8;
+    }
+
+    public static int moveFrom(int move) {
+        return move & 0xF;
+    }
+
+    public static int moveTo(int move) {
+        return move >> 4 & 0xF;
+    }
+
+    public static int moveNumberOfCards(int move) {
+        return move >> 8 & 0xF;
+    }
+
+    /**
+     * Get a list of possible moves worth a hint, the moves on a card of the same
+     * suit or on an empty column first, see {@link #generateCanonicalMoves(int[])}
+     *
+     * @return list of possible moves
+     */
+    public List<MoveDeckMove> getPossibleMoves() {
+        int[] moves = new int[MAX_MOVES];
+        int n = generateCanonicalMoves(moves);
+        List<MoveDeckMove> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(new MoveDeckMove(moveFrom(moves[i]), moveTo(moves[i]), moveNumberOfCards(moves[i]), false));
+        }
+        return list;
+    }
+
+    /**
+     * Generate the possible moves, the moves on a card of the same suit or on an
+     * empty column first
+     *
+     * @param moves array where to put the moves, encoded as in {@link #encodeMove(int, int, int)},
+     *              at least {@link #MAX_MOVES} long
+     * @return number of moves
+     */
+    public int generateMoves(int[] moves) {
+        return generateMoves(moves, 0);
+    }
+
+    /**
+     * Generate the possible moves, the moves on a card of the same suit or on an
+     * empty column first. Only the moves from or to the columns changed since the
+     * last call are computed again.
+     *
+     * @param moves  array where to put the moves, encoded as in {@link #encodeMove(int, int, int)}
+     * @param offset index of the array where to put the first move, the array must
+     *               have at least {@link #MAX_MOVES} elements from it
+     * @return number of moves
+     */
+    public int generateMoves(int[] moves, int offset) {
+        int changed = changedColumns;
+        if (changed != 0) {
+            updateMasks(changed);
+            for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+                if ((changed & 1 << i) != 0) {
+                    numberOfMovesFrom[i] = 0;
+                    addMoves(i, ALL_COLUMNS);
+                } else {
+                    /* only the moves to the changed columns are different */
+                    int[] from = movesFrom[i];
+                    int n = 0;
+                    for (int k = 0; k < numberOfMovesFrom[i]; k++) {
+                        if ((changed & 1 << moveTo(from[k])) == 0)
+                            from[n++] = from[k];
+                    }
+                    numberOfMovesFrom[i] = n;
+                    addMoves(i, changed);
+                }
+            }
+            changedColumns = 0;
+        }
+
+        int n = offset;
+        for (int pass = SAME_SUIT; pass >= 0; pass -= SAME_SUIT) {
+            for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+                int[] from = movesFrom[i];
+                for (int k = 0; k < numberOfMovesFrom[i]; k++) {
+                    if ((from[k] & SAME_SUIT) == pass)
+                        moves[n++] = from[k] & ~SAME_SUIT;
+                }
+            }
+        }
+        return n - offset;
+    }
+
+    /**
+     * Generate the canonical moves: the possible moves, in the same order, without
+     * the moves that are redundant for a search or a hint:
+     * <ul>
+     * <li>a whole column to an empty column, that only swaps the columns;</li>
+     * <li>a run to an empty column other than the first one, that is equivalent;</li>
+     * <li>part of a run of the same suit, unless it completes a run;</li>
+     * <li>the reversal of the last move, if it didn't turn a card.</li>
+     * </ul>
+     * The moves to an empty column have an equivalent one kept, the reversal goes back
+     * to the position before, and the part of a run left behind can go wherever the
+     * whole run can, so the run can always be split later; none of the moves removed
+     * turns a card, empties a column or completes a run.
+     *
+     * @param moves array where to put the moves, encoded as in {@link #encodeMove(int, int, int)},
+     *              at least {@link #MAX_MOVES} long
+     * @return number of moves
+     */
+    public int generateCanonicalMoves(int[] moves) {
+        return generateCanonicalMoves(moves, 0);
+    }
+
+    /**
+     * Generate the canonical moves, see {@link #generateCanonicalMoves(int[])}
+     *
+     * @param moves  array where to put the moves, encoded as in {@link #encodeMove(int, int, int)}
+     * @param offset index of the array where to put the first move, the array must
+     *               have at least {@link #MAX_MOVES} elements from it
+     * @return number of moves
+     */
+    public int generateCanonicalMoves(int[] moves, int offset) {
+        int n = offset + generateMoves(moves, offset);
+        int firstEmpty = emptyMask == 0 ? -1 : Integer.numberOfTrailingZeros(emptyMask);
+        int reversal = -1;
+        if (logSize > 0 && (log[logSize - 1] & (LOG_TYPE | LOG_REVEALED)) == LOG_MOVE) {
+            int last = log[logSize - 1];
+            reversal = encodeMove(moveTo(last), moveFrom(last), moveNumberOfCards(last));
+        }
+
+        int k = offset;
+        for (int i = offset; i < n; i++) {
+            if (!isRedundant(moves[i], firstEmpty, reversal))
+                moves[k++] = moves[i];
+        }
+        return k - offset;
+    }
+
+    /**
+     * Check if a move is redundant, see {@link #generateCanonicalMoves(int[])}
+     *
+     * @param move       possible move
+     * @param firstEmpty index of the first empty column, -1 if none
+     * @param reversal   reversal of the last move, -1 if none
+     * @return true if the move can be skipped
+     */
+    private boolean isRedundant(int move, int firstEmpty, int reversal) {
+        if (move == reversal)
+            return true;
+        int from = moveFrom(move);
+        int to = moveTo(move);
+        int numberOfCards = moveNumberOfCards(move);
+        int bottom = position.numberOfCards(from) - numberOfCards;
+        int card = position.getCard(from, bottom);
+        int top = position.getTopCard(to);
+
+        if (top < 0 && (to != firstEmpty || bottom == 0))
+            return true;
+        if (bottom <= position.getFirstFaceUp(from))
+            return false; /* it turns a card or empties the column */
+
+        int below = position.getCard(from, bottom - 1);
+        if (!Position.inSequence(below, card))
+            return false;
+        boolean sameSuitTop = top >= 0 && Position.suitOf(top) == Position.suitOf(card);
+        return !(sameSuitTop && position.getRunLength(to) + numberOfCards == 13);
+    }
+
+    /**
+     * Update the masks of the cards on top of the changed columns
+     */
+    private void updateMasks(int changed) {
+        for (int c = 0; c < Position.NUMBER_OF_COLUMNS; c++) {
+            if ((changed & 1 << c) == 0)
+                continue;
+            int bit = 1 << c;
+            int oldTop = topCards[c];
+            if (oldTop < 0) {
+                emptyMask &= ~bit;
+            } else {
+                cardMasks[oldTop] &= ~bit;
+                valueMasks[oldTop % 13] &= ~bit;
+            }
+            int top = position.getTopCard(c);
+            if (top < 0) {
+                emptyMask |= bit;
+            } else {
+                top &= ~Position.FACE_UP;
+                cardMasks[top] |= bit;
+                valueMasks[top % 13] |= bit;
+            }
+            topCards[c] = top;
+        }
+    }
+
+    /**
+     * Add to the possible moves out of a column the ones to some other columns. A run
+     * with value v on the bottom can go on the columns with a v + 1 on top or empty.
+     */
+    private void addMoves(int from, int columns) {
+        int run = position.getRunLength(from);
+        if (run == 0)
+            return;
+        int top = topCards[from];
+        int[] moves = movesFrom[from];
+        int k = numberOfMovesFrom[from];
+        columns &= ~(1 << from);
+        for (int n = 1; n <= run; n++) {
+            /* index of the bottom card of the run + 1, so the index of the card it goes on */
+            int card = top + n;
+            int value = card % 13;
+            int targets = (value == 0 ? emptyMask : valueMasks[value] | emptyMask) & columns;
+            int sameSuit = value == 0 ? emptyMask : cardMasks[card] | emptyMask;
+            while (targets != 0) {
+                int to = Integer.numberOfTrailingZeros(targets);
+                targets &= targets - 1;
+                moves[k++] = encodeMove(from, to, n) | (sameSuit >> to & 1) * SAME_SUIT;
+            }
+        }
+        numberOfMovesFrom[from] = k;
+    }
+
+    /**
+     * Move of cards from a column to another, as listed by {@link #getPossibleMoves()}
+     */
+    static final class MoveDeckMove {
+        public final int to;
+        public final int from;
+        public final int numberOfCards;
+        public final boolean visible;
+
+        public MoveDeckMove(int from, int to, int numberOfCards, boolean visible) {
+            this.to = to;
+            this.from = from;
+            this.numberOfCards = numberOfCards;
+            this.visible = visible;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package it.alerighi.spider;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Binary format of saved games, and text share codes of positions.
+ * <p>
+ * A saved game is the magic "SPSG", the version, the number of suits (byte), the
+ * game number (long), the score (int), the position in the compact form of
+ * {@link Position#writeTo(ByteBuffer)}, the number of moves done and the number of
+ * entries of the move log (shorts), then the entries of the move log (shorts),
+ * those that can be redone last. A game is about 150 bytes plus 2 bytes for each
+ * move, and is loaded as it was saved, without playing its moves again.
+ * <p>
+ * A share code is a position of an analysis in a line of text: the version, then
+ * the number of suits and the position packed in bits, in URL safe Base64. A card
+ * takes 4, 5 or 6 bits for 1, 2 or 4 suits, and its face is given by the number of
+ * face down cards of its column.
+ *
+ * @author Alessandro Righi
+ */
+public final class GameFile {
+
+    private static final int MAGIC = 0x53505347; /* "SPSG" */
+    private static final int VERSION = 1;
+    private static final char SHARE_CODE_VERSION = '1';
+
+    /**
+     * maximum size of a saved game: the header, the position and a full move log
+     */
+    private static final int MAX_SIZE = 18 + Position.MAX_ENCODED_SIZE + 4 + 2 * 0xFFFF;
+
+    private GameFile() {
+    }
+
+    /**
+     * Write a game
+     *
+     * @param game    game to write
+     * @param channel channel where to write
+     * @throws IOException if the game can't be written
+     */
+    public static void write(Game game, WritableByteChannel channel) throws IOException {
+        if (game.getLogEnd() > 0xFFFF)
+            throw new IOException("Too many moves to save");
+        ByteBuffer buffer = ByteBuffer.allocate(18 + Position.MAX_ENCODED_SIZE + 4 + 2 * game.getLogEnd());
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) game.getNumberOfSuits());
+        buffer.putLong(game.getGameNumber());
+        buffer.putInt(game.getScore());
+        game.getPosition().writeTo(buffer);
+        buffer.putShort((short) game.getNumberOfMoves());
+        buffer.putShort((short) game.getLogEnd());
+        for (int i = 0; i < game.getLogEnd(); i++) {
+            buffer.putShort((short) game.getLogEntry(i));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read a game, replacing a game only if the whole game is valid
+     *
+     * @param channel channel where to read
+     * @param game    game to replace
+     * @throws IOException if the game can't be read or is not valid
+     */
+    public static void read(ReadableByteChannel channel, Game game) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_SIZE);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            /* read until the end of the game */
+        }
+        buffer.flip();
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a saved game");
+            if (buffer.get() != VERSION)
+                throw new IOException("Unsupported version of saved game");
+            int numberOfSuits = buffer.get();
+            long gameNumber = buffer.getLong();
+            int score = buffer.getInt();
+            Position position = Position.readFrom(buffer);
+            int logSize = buffer.getShort() & 0xFFFF;
+            int[] log = new int[buffer.getShort() & 0xFFFF];
+            for (int i = 0; i < log.length; i++) {
+                log[i] = buffer.getShort() & 0xFFFF;
+            }
+            game.restore(numberOfSuits, gameNumber, score, position, log, logSize);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated saved game");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid saved game: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Save a game to a file, replacing it only when the game is completely written
+     *
+     * @param game game to save
+     * @param path file where to save the game
+     * @throws IOException if the game can't be saved
+     */
+    public static void save(Game game, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(game, channel);
+            channel.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a game from a file
+     *
+     * @param path file of the game
+     * @param game game to replace with the loaded one
+     * @throws IOException if the game can't be loaded
+     */
+    public static void load(Path path, Game game) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel, game);
+        }
+    }
+
+    /**
+     * Get the share code of a position
+     *
+     * @param numberOfSuits number of suits of the game
+     * @param position      position
+     * @return share code
+     */
+    public static String toShareCode(int numberOfSuits, Position position) {
+        BitWriter bits = new BitWriter();
+        int cardBits = cardBits(numberOfSuits);
+        bits.write(Integer.numberOfTrailingZeros(numberOfSuits), 2);
+        bits.write(position.getRemainingDeals(), 3);
+        bits.write(position.getNumberOfCompletedRuns(), 4);
+        for (int i = 0; i < position.getNumberOfCompletedRuns(); i++) {
+            bits.write(position.getCompletedRunSuit(i), 2);
+        }
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            bits.write(position.numberOfCards(i), 7);
+            bits.write(position.getFirstFaceUp(i), 6);
+        }
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            for (int j = 0; j < position.numberOfCards(i); j++) {
+                bits.write(position.getCard(i, j) & ~Position.FACE_UP, cardBits);
+            }
+        }
+        for (int row = position.getRemainingDeals() - 1; row >= 0; row--) {
+            for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+                bits.write(position.getStockCard(row, i), cardBits);
+            }
+        }
+        return SHARE_CODE_VERSION + Base64.getUrlEncoder().withoutPadding().encodeToString(bits.toByteArray());
+    }
+
+    /**
+     * Read a share code into a game, that has no number, the initial score and an
+     * empty move log
+     *
+     * @param shareCode share code
+     * @param game      game to replace with the position of the code
+     * @throws IllegalArgumentException if the share code is not valid
+     */
+    public static void fromShareCode(String shareCode, Game game) {
+        shareCode = shareCode.trim();
+        if (shareCode.isEmpty() || shareCode.charAt(0) != SHARE_CODE_VERSION)
+            throw new IllegalArgumentException("Unsupported share code");
+        BitReader bits = new BitReader(Base64.getUrlDecoder().decode(shareCode.substring(1)));
+
+        int numberOfSuits = 1 << bits.read(2);
+        if (numberOfSuits > 4)
+            throw new IllegalArgumentException("Invalid number of suits");
+        int cardBits = cardBits(numberOfSuits);
+        ByteBuffer buffer = ByteBuffer.allocate(Position.MAX_ENCODED_SIZE);
+        int rows = bits.read(3);
+        int runs = bits.read(4);
+        if (rows > Position.NUMBER_OF_DEALS || runs > Position.RUNS_TO_WIN)
+            throw new IllegalArgumentException("Invalid number of remaining deals or completed runs");
+        buffer.put((byte) rows);
+        buffer.put((byte) runs);
+        for (int i = 0; i < runs; i++) {
+            buffer.put((byte) bits.read(2));
+        }
+        int[] faceDown = new int[Position.NUMBER_OF_COLUMNS];
+        int[] count = new int[Position.NUMBER_OF_COLUMNS];
+        int total = rows * Position.NUMBER_OF_COLUMNS + runs * 13;
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            count[i] = bits.read(7);
+            faceDown[i] = bits.read(6);
+            total += count[i];
+            buffer.put((byte) count[i]);
+        }
+        /* the cards must fit in the buffer before they are read */
+        if (total != Position.NUMBER_OF_CARDS)
+            throw new IllegalArgumentException("Invalid number of cards");
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            for (int j = 0; j < count[i]; j++) {
+                buffer.put((byte) (readCard(bits, cardBits, numberOfSuits) | (j >= faceDown[i] ? Position.FACE_UP : 0)));
+            }
+        }
+        for (int i = 0; i < rows * Position.NUMBER_OF_COLUMNS; i++) {
+            buffer.put((byte) readCard(bits, cardBits, numberOfSuits));
+        }
+        buffer.flip();
+        game.restore(numberOfSuits, -1, Game.INITIAL_SCORE, Position.readFrom(buffer), new int[0], 0);
+    }
+
+    /**
+     * Read a card of a share code
+     *
+     * @throws IllegalArgumentException if the card is not of the suits in play
+     */
+    private static int readCard(BitReader bits, int cardBits, int numberOfSuits) {
+        int card = bits.read(cardBits);
+        if (card >= 13 * numberOfSuits)
+            throw new IllegalArgumentException("Invalid card");
+        return card;
+    }
+
+    /**
+     * Number of bits of a card in a share code, enough for the cards of the suits in play
+     */
+    private static int cardBits(int numberOfSuits) {
+        return 32 - Integer.numberOfLeadingZeros(13 * numberOfSuits - 1);
+    }
+
+    /**
+     * Writer of values packed in bits, most significant bit first
+     */
+    private static final class BitWriter {
+        private byte[] bytes = new byte[128];
+        private int length;
+
+        void write(int value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                if (length == bytes.length * 8)
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                if ((value >> i & 1) != 0)
+                    bytes[length >> 3] |= 0x80 >> (length & 7);
+                length++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (length + 7) >> 3);
+        }
+    }
+
+    /**
+     * Reader of values written by {@link BitWriter}
+     */
+    private static final class BitReader {
+        private final byte[] bytes;
+        private int position;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int read(int bits) {
+            if (position + bits > bytes.length * 8)
+                throw new IllegalArgumentException("Truncated share code");
+            int value = 0;
+            for (int i = 0; i < bits; i++, position++) {
+                value = value << 1 | (bytes[position >> 3] >> (7 - (position & 7)) & 1);
+            }
+            return value;
+        }
+    }
+}
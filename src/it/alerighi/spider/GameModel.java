@@ -0,0 +1,369 @@
+package it.alerighi.spider;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Model of the interactive game: a thread that owns the {@link Game} and applies
+ * the commands of the player to it, in the order they are posted.
+ * <p>
+ * After each command the model publishes an immutable {@link Snapshot} of the game.
+ * The renderer, the hint engine and any other reader get the latest snapshot
+ * without locks and never wait for the game logic, and the commands return at once.
+ *
+ * @author Alessandro Righi
+ */
+public final class GameModel {
+    private static final Logger logger = Logger.getGlobal();
+
+    /**
+     * Immutable state of the game after a command
+     */
+    public static final class Snapshot {
+        /**
+         * copy of the game, never modified
+         */
+        private final Game game;
+        private final int numberOfMoves;
+        private final long sequence;
+
+        private Snapshot(Game game, long sequence) {
+            this.game = new Game(game);
+            this.numberOfMoves = game.getNumberOfMoves();
+            this.sequence = sequence;
+        }
+
+        /**
+         * Get the sequence number of the last command applied
+         *
+         * @return sequence number, 0 before the first command
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get the position. It must not be modified.
+         *
+         * @return position
+         */
+        public Position getPosition() {
+            return game.getPosition();
+        }
+
+        /**
+         * Get the number of suits of the game
+         *
+         * @return number of suits, 0 if no game was started
+         */
+        public int getNumberOfSuits() {
+            return game.getNumberOfSuits();
+        }
+
+        /**
+         * Get the number of the game
+         *
+         * @return game number
+         */
+        public long getGameNumber() {
+            return game.getGameNumber();
+        }
+
+        /**
+         * Get the score
+         *
+         * @return score
+         */
+        public int getScore() {
+            return game.getScore();
+        }
+
+        /**
+         * Get the number of moves in the move log
+         *
+         * @return number of moves
+         */
+        public int getNumberOfMoves() {
+            return numberOfMoves;
+        }
+
+        /**
+         * Get the number of rows of cards still to deal
+         *
+         * @return remaining deals
+         */
+        public int getRemainingDeals() {
+            return game.getRemainingDeals();
+        }
+
+        /**
+         * Indicate if the game is ended (all runs completed)
+         *
+         * @return true only if the game is ended
+         */
+        public boolean isEnded() {
+            return game.isEnded();
+        }
+
+        /**
+         * Create a game in the position of the snapshot, that can be modified, as for
+         * a search
+         *
+         * @return new game, with an empty move log
+         */
+        public Game toGame() {
+            return new Game(game);
+        }
+    }
+
+    /**
+     * the game, only accessed by the model thread
+     */
+    private Game game = new Game();
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(game, 0));
+
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "model");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * sequence number of the last command posted
+     */
+    private long posted;
+
+    /**
+     * called by the model thread after a snapshot is published
+     */
+    private final Runnable listener;
+
+    /**
+     * where the results of the games are recorded, null if they are not recorded
+     */
+    private final Statistics statistics;
+
+    /**
+     * true if the result of the current game is still to be recorded, only accessed
+     * by the model thread
+     */
+    private boolean resultPending;
+
+    /**
+     * time the current game was started, in milliseconds
+     */
+    private long startTime;
+
+    /**
+     * Create a model, with no game started, that doesn't record the results
+     *
+     * @param listener called by the model thread each time a snapshot is published
+     */
+    public GameModel(Runnable listener) {
+        this(listener, null);
+    }
+
+    /**
+     * Create a model, with no game started
+     *
+     * @param listener   called by the model thread each time a snapshot is published
+     * @param statistics where the results of the new games are recorded, null if they are not recorded
+     */
+    public GameModel(Runnable listener, Statistics statistics) {
+        this.listener = listener;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Get the latest snapshot of the game, without waiting
+     *
+     * @return the snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Post a command and publish a snapshot when it has been applied
+     *
+     * @param command command that modifies the game
+     * @return sequence number of the command
+     */
+    private synchronized long post(Runnable command) {
+        long sequence = ++posted;
+        thread.execute(() -> {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                logger.severe("Error executing a command: " + e);
+            }
+            if (resultPending && game.isEnded())
+                recordResult(true);
+            snapshot.set(new Snapshot(game, sequence));
+            listener.run();
+        });
+        return sequence;
+    }
+
+    /**
+     * Record the result of the current game, if it has to be recorded
+     *
+     * @param win true if the game was won, false if it was abandoned
+     */
+    private void recordResult(boolean win) {
+        if (!resultPending)
+            return;
+        resultPending = false;
+        if (statistics != null && (win || game.getNumberOfMoves() > 0))
+            statistics.record(game.getNumberOfSuits(), win, game.getScore(), game.getNumberOfMoves(),
+                    System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Start a new game. The current game, if not ended, is recorded as lost, unless
+     * no move was done.
+     *
+     * @param numberOfSuits number of suits of the game
+     * @param gameNumber    number of the game to deal
+     * @return sequence number of the command
+     */
+    public long newGame(int numberOfSuits, long gameNumber) {
+        return post(() -> {
+            recordResult(false);
+            game.newGame(numberOfSuits, gameNumber);
+            resultPending = true;
+            startTime = System.currentTimeMillis();
+        });
+    }
+
+    /**
+     * Move cards from a column to another, if the move is valid
+     *
+     * @param from          column where the cards are
+     * @param to            column where to move the cards
+     * @param numberOfCards number of cards to move
+     * @return sequence number of the command
+     */
+    public long moveCards(int from, int to, int numberOfCards) {
+        return post(() -> game.moveCards(from, to, numberOfCards));
+    }
+
+    /**
+     * Deal a row of cards, if possible
+     *
+     * @return sequence number of the command
+     */
+    public long dealCards() {
+        return post(() -> {
+            if (game.dealCards())
+                logger.info("Dealing cards: remaining decks " + game.getRemainingDeals());
+            else
+                logger.info("Cannot deal cards");
+        });
+    }
+
+    /**
+     * Undo the last move, if any
+     *
+     * @return sequence number of the command
+     */
+    public long undoLastMove() {
+        return post(game::undoLastMove);
+    }
+
+    /**
+     * Redo the last move undone, if any
+     *
+     * @return sequence number of the command
+     */
+    public long redoMove() {
+        return post(game::redoMove);
+    }
+
+    /**
+     * Save the game to a file, after the commands already posted
+     *
+     * @param path file where to save the game
+     * @return completed when the game is saved, exceptionally if it can't be saved
+     */
+    public CompletableFuture<Void> saveGame(Path path) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        thread.execute(() -> {
+            try {
+                GameFile.save(game, path);
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Load a game from a file, replacing the current game only if the file is valid.
+     * The current game is recorded as when a new game is started, and the result of
+     * the loaded game is not recorded.
+     *
+     * @param path file of the game
+     * @return completed when the game is loaded, exceptionally if it can't be loaded
+     */
+    public CompletableFuture<Void> loadGame(Path path) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        post(() -> {
+            try {
+                Game loaded = new Game();
+                GameFile.load(path, loaded);
+                recordResult(false);
+                game = loaded;
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Open the position of a share code, as a game with no number, whose result is
+     * not recorded
+     *
+     * @param shareCode share code of the position
+     * @return completed when the position is opened, exceptionally if the code is not valid
+     */
+    public CompletableFuture<Void> openShareCode(String shareCode) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        post(() -> {
+            try {
+                Game opened = new Game();
+                GameFile.fromShareCode(shareCode, opened);
+                recordResult(false);
+                game = opened;
+                result.complete(null);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Wait until all the commands posted have been applied
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException {
+        try {
+            thread.submit(() -> {
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
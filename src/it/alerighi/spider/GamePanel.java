@@ -3,12 +3,20 @@ package it.alerighi.spider;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
- * Classe that handles the game logic
+ * Panel that shows the game and turns the input of the player into commands
+ * to the {@link GameModel}
  *
  * @author Alessandro Righi
  */
@@ -20,19 +28,52 @@ public final class GamePanel extends JPanel {
     public static final Color HINT_COLOR = new Color(10, 27, 50);
 
     /**
-     * Array of the top 10 decks of the game
+     * time each step of the hint animation is shown, in milliseconds
      */
-    private Deck[] topDecks = new Deck[10];
+    private static final int HINT_STEP_DELAY = 400;
+
+    private static final Stroke HINT_STROKE = new BasicStroke(5);
 
     /**
-     * Array of the decks of numberOfCards to deal
+     * y coordinate of the upper decks
      */
-    private Card[][] decks = new Card[5][10];
+    private static final int DECKS_Y = 20;
 
     /**
-     * number of remaining decks to distribute [0, 5]
+     * thread that computes the hints in background
      */
-    private int remainingDecks;
+    private static final ExecutorService hintExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hints");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * model owning the game state, that repaints the panel when the game changes
+     */
+    private final GameModel model;
+
+    /**
+     * snapshot of the model that is displayed
+     */
+    private GameModel.Snapshot snapshot;
+
+    /**
+     * sequence number of the move of the dropped cards, 0 if none: the dropped
+     * cards are shown until the model has applied it
+     */
+    private long awaitedCommand;
+
+    /**
+     * copy of the game position that is displayed, modified while dragging cards
+     */
+    private final Position display = new Position();
+
+    /**
+     * Array of the top 10 decks of the game, views over the displayed position
+     */
+    private Deck[] topDecks = new Deck[Position.NUMBER_OF_COLUMNS];
 
     /**
      * deck that the player is moving (if any)
@@ -40,120 +81,451 @@ public final class GamePanel extends JPanel {
     private Deck draggingDeck = null;
 
     /**
-     * completed and removed decks
+     * x coordinates of the upper decks, computed again when the width of the panel changes
+     */
+    private final int[] decksX = new int[Position.NUMBER_OF_COLUMNS];
+    private int layoutWidth = -1;
+
+    /**
+     * font of the score area, derived from the font of the panel when it changes
+     */
+    private Font baseFont;
+    private Font scoreFont;
+
+    /**
+     * backing layer with everything but the dragged cards and the hint, rendered
+     * again only when something on it changes
+     */
+    private BufferedImage backing;
+    private GraphicsConfiguration backingConfiguration;
+    private double backingScale;
+    private int backingWidth;
+    private int backingHeight;
+    private boolean backingValid;
+
+    /**
+     * true while the decks are flagged (spaced) by a mouse press
+     */
+    private boolean flagged;
+
+    /**
+     * images of the score box and of the UNDO button, null when they must be rendered again
+     */
+    private BufferedImage scoreBox;
+    private BufferedImage undoBox;
+
+    /**
+     * hints for the current position, null while they are computed
+     */
+    private List<Game.MoveDeckMove> hints;
+
+    /**
+     * engine of the lookahead hints, null to only suggest the moves on the same suit first
      */
-    private Stack<Deck> removedDecks = new Stack<>();
+    private volatile HintEngine hintEngine = new HintEngine(HintEngine.DEFAULT_BUDGET, HintEngine.DEFAULT_BEAM_WIDTH);
 
     /**
-     * stack of moves done by the player
+     * estimator of the probability to win the current position, in background
      */
-    private Stack<Move> moves = new Stack<>();
+    private final WinEstimator winEstimator = new WinEstimator(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
 
     /**
-     * game score
+     * true if the probability to win is estimated and shown in the score box
      */
-    private int score;
+    private boolean winEstimates = true;
 
     /**
-     * list of possible valid moves
+     * latest estimate of the probability to win the current position, null while
+     * the first one is computed
      */
-    private List<MoveDeckMove> possibleMoves;
+    private WinEstimator.Estimate winEstimate;
 
     /**
-     * number of suits of the game
+     * index of the next hint to show
      */
-    private int numberOfSuits;
+    private int nextHint;
 
+    /**
+     * computation of the hints for the current position, if running
+     */
+    private Future<?> hintComputation;
+
+    /**
+     * incremented every time the game changes, to discard the hints of old positions
+     */
+    private int hintGeneration;
+
+    /**
+     * true if the player asked for a hint before it was computed
+     */
+    private boolean hintRequested;
+
+    /**
+     * hint that is shown, and step of its animation: 0 the cards to move, 1 the destination
+     */
+    private Game.MoveDeckMove shownHint;
+    private int hintStep;
+
+    /**
+     * timer of the hint animation
+     */
+    private final javax.swing.Timer hintTimer = new javax.swing.Timer(HINT_STEP_DELAY, e -> nextHintStep());
+
+    /**
+     * true after the first frame and after the first frame with the cards, to log
+     * the time to the first frame
+     */
+    private boolean firstFramePainted;
+    private boolean firstCardsPainted;
+
+    /**
+     * Create a panel that doesn't record the results of the games
+     */
     public GamePanel() {
+        this(null);
+    }
+
+    /**
+     * Create a panel
+     *
+     * @param statistics where the results of the games are recorded, null if they are not recorded
+     */
+    public GamePanel(Statistics statistics) {
+        model = new GameModel(this::repaint, statistics);
+        snapshot = model.getSnapshot();
         GameEventListener eventListener = new GameEventListener();
         addMouseListener(eventListener);
         addMouseMotionListener(eventListener);
         addKeyListener(eventListener);
         setFocusable(true);
         requestFocus();
-        new Card(1, 1);
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            topDecks[i] = new Deck(display, i);
+            topDecks[i].setIndex(i);
+            topDecks[i].setPosition(getDeckX(i), DECKS_Y);
+        }
+        CardImages.whenLoaded(this::repaint);
     }
 
     /**
-     * Start a new game
+     * Start a new game with a random game number
      *
      * @param numberOfSuits number of suits of the game
      */
     public void startNewGame(int numberOfSuits) {
-        logger.info("Starting new game with " + numberOfSuits + " suits");
-        this.numberOfSuits = numberOfSuits;
-        buildDecks();
-        removedDecks.clear();
-        moves.clear();
-        remainingDecks = 5;
-        score = 500;
-        repaint();
-        possibleMoves = getPossibleMoves();
+        startNewGame(numberOfSuits, DealGenerator.randomGameNumber());
+    }
+
+    /**
+     * Start a new game
+     *
+     * @param numberOfSuits number of suits of the game
+     * @param gameNumber    number of the game to deal
+     */
+    public void startNewGame(int numberOfSuits, long gameNumber) {
+        logger.info("Starting game #" + gameNumber + " with " + numberOfSuits + " suits");
+        model.newGame(numberOfSuits, gameNumber);
     }
 
     /**
-     * Initializes card decks
+     * Check if a game was started, that can be saved or shared
+     *
+     * @return true only if a game was started
      */
-    private void buildDecks() {
+    public boolean isGameStarted() {
+        return model.getSnapshot().getNumberOfSuits() != 0;
+    }
 
-        ArrayList<Card> deck = new ArrayList<>(8 * 4 * 13);
+    /**
+     * Save the game to a file
+     *
+     * @param path file where to save the game
+     * @return completed when the game is saved, exceptionally if it can't be saved
+     */
+    public CompletableFuture<Void> saveGame(Path path) {
+        logger.info("Saving game to " + path);
+        return model.saveGame(path);
+    }
 
-        for (int n = 0; n < 8 / numberOfSuits; n++) {
-            for (int suit = 0; suit < numberOfSuits; suit++) {
-                for (int value = 1; value < 14; value++) {
-                    deck.add(new Card(suit, value));
-                }
-            }
+    /**
+     * Load a game from a file
+     *
+     * @param path file of the game
+     * @return completed when the game is loaded, exceptionally if it can't be loaded
+     */
+    public CompletableFuture<Void> loadGame(Path path) {
+        logger.info("Loading game from " + path);
+        return model.loadGame(path);
+    }
+
+    /**
+     * Get the share code of the current position
+     *
+     * @return share code, null if no game was started
+     */
+    public String getShareCode() {
+        GameModel.Snapshot latest = model.getSnapshot();
+        if (latest.getNumberOfSuits() == 0)
+            return null;
+        return GameFile.toShareCode(latest.getNumberOfSuits(), latest.getPosition());
+    }
+
+    /**
+     * Open the position of a share code
+     *
+     * @param shareCode share code of the position
+     * @return completed when the position is opened, exceptionally if the code is not valid
+     */
+    public CompletableFuture<Void> openShareCode(String shareCode) {
+        logger.info("Opening share code " + shareCode);
+        return model.openShareCode(shareCode);
+    }
+
+    /**
+     * Wait until the model has applied the commands posted, as when the panel is
+     * painted offscreen
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flushModel() throws InterruptedException {
+        model.flush();
+    }
+
+    /**
+     * Show the latest snapshot of the model if it changed, unless the player is
+     * dragging cards or the move of the dropped cards was not applied yet
+     */
+    private void updateSnapshot() {
+        GameModel.Snapshot latest = model.getSnapshot();
+        if (latest == snapshot)
+            return;
+        if (draggingDeck != null && (awaitedCommand == 0 || latest.getSequence() < awaitedCommand))
+            return;
+        showSnapshot(latest);
+    }
+
+    /**
+     * Update the displayed position from a snapshot of the model
+     *
+     * @param latest snapshot to show
+     */
+    private void showSnapshot(GameModel.Snapshot latest) {
+        snapshot = latest;
+        awaitedCommand = 0;
+        draggingDeck = null;
+        display.copyFrom(snapshot.getPosition());
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            topDecks[i].setPosition(getDeckX(i), DECKS_Y);
         }
 
-        Collections.shuffle(deck);
+        scoreBox = null;
+        backingValid = false;
 
-        for (int i = 0; i < 5; i++) {
-            decks[i] = deck.subList(i * 10, i * 10 + 10).toArray(decks[i]);
+        computeHints();
+        estimateWin();
+    }
+
+    /**
+     * Cancel the hint that is shown or computed, and compute the hints of the current
+     * position in background
+     */
+    private void computeHints() {
+        stopHint();
+        hintRequested = false;
+        if (hintComputation != null)
+            hintComputation.cancel(true);
+
+        hints = null;
+        nextHint = 0;
+        int generation = ++hintGeneration;
+        Game copy = snapshot.toGame();
+        HintEngine engine = hintEngine;
+        hintComputation = hintExecutor.submit(() -> {
+            List<Game.MoveDeckMove> moves = copy.getPossibleMoves();
+            if (engine != null && !moves.isEmpty())
+                moveBestFirst(moves, engine.search(copy));
+            if (!Thread.currentThread().isInterrupted())
+                SwingUtilities.invokeLater(() -> hintsComputed(generation, moves));
+        });
+    }
+
+    /**
+     * Put the move found by the lookahead engine first in the hints
+     *
+     * @param moves  possible moves
+     * @param result result of the lookahead search
+     */
+    private static void moveBestFirst(List<Game.MoveDeckMove> moves, HintEngine.Result result) {
+        logger.fine("Lookahead hint: " + result);
+        for (int i = 0; i < moves.size(); i++) {
+            Game.MoveDeckMove move = moves.get(i);
+            if (Game.encodeMove(move.from, move.to, move.numberOfCards) == result.move) {
+                moves.add(0, moves.remove(i));
+                return;
+            }
         }
+    }
 
-        for (int i = 0; i < 4; i++) {
-            topDecks[i] = new Deck(deck.subList(50 + i * 6, 50 + i * 6 + 6));
-            topDecks[i].setIndex(i);
+    /**
+     * Enable or disable the lookahead hints. Without them, the hints are the moves
+     * on a card of the same suit first.
+     *
+     * @param enabled true to search the hints a few moves ahead
+     */
+    public void setLookaheadHints(boolean enabled) {
+        hintEngine = enabled ? new HintEngine(HintEngine.DEFAULT_BUDGET, HintEngine.DEFAULT_BEAM_WIDTH) : null;
+        if (snapshot.getNumberOfSuits() != 0)
+            computeHints();
+    }
+
+    /**
+     * Start the estimation of the probability to win the current position, that
+     * refines the estimate shown in the score box in background
+     */
+    private void estimateWin() {
+        winEstimate = null;
+        if (!winEstimates || snapshot.getNumberOfSuits() == 0 || snapshot.isEnded()) {
+            winEstimator.cancel();
+            return;
         }
+        GameModel.Snapshot estimated = snapshot;
+        winEstimator.estimate(snapshot.toGame(),
+                estimate -> SwingUtilities.invokeLater(() -> winEstimated(estimated, estimate)));
+    }
+
+    /**
+     * Receive an estimate of the probability to win, on the event dispatch thread
+     *
+     * @param estimated snapshot of the estimated position
+     * @param estimate  estimate
+     */
+    private void winEstimated(GameModel.Snapshot estimated, WinEstimator.Estimate estimate) {
+        if (estimated != snapshot || !winEstimates)
+            return; /* the game has changed in the meantime */
+        logger.fine("Win estimate: " + estimate);
+        winEstimate = estimate;
+        scoreBox = null;
+        backingValid = false;
+        repaint();
+    }
+
+    /**
+     * Enable or disable the estimate of the probability to win in the score box
+     *
+     * @param enabled true to estimate the probability to win
+     */
+    public void setWinEstimates(boolean enabled) {
+        winEstimates = enabled;
+        estimateWin();
+        scoreBox = null;
+        backingValid = false;
+        repaint();
+    }
 
-        for (int i = 0; i < 6; i++) {
-            topDecks[i + 4] = new Deck(deck.subList(74 + i * 5, 74 + i * 5 + 5));
-            topDecks[i + 4].setIndex(i + 4);
+    /**
+     * Receive the hints computed in background, on the event dispatch thread
+     *
+     * @param generation generation of the position of the hints
+     * @param moves      hints
+     */
+    private void hintsComputed(int generation, List<Game.MoveDeckMove> moves) {
+        if (generation != hintGeneration)
+            return; /* the game has changed in the meantime */
+        hints = moves;
+        hintComputation = null;
+        if (hintRequested) {
+            hintRequested = false;
+            getHint();
         }
     }
 
     /**
-     * Draws the score area and the UNDO button
+     * Draws the score area and the UNDO button, from images rendered again only
+     * when the game or the font change
      *
      * @param graphics graphics area
      */
     private void drawScoreArea(Graphics graphics) {
+        if (graphics.getFont() != baseFont) {
+            baseFont = graphics.getFont();
+            scoreFont = baseFont.deriveFont(baseFont.getSize() * 1.4F);
+            scoreBox = null;
+            undoBox = null;
+        }
+        if (scoreBox == null)
+            scoreBox = renderScoreBox((Graphics2D) graphics);
+        if (undoBox == null)
+            undoBox = renderUndoBox((Graphics2D) graphics);
+
         int x = getWidth() / 2 - 125;
         int y = getHeight() - 145;
-        graphics.setColor(SCORE_BOX_COLOR);
-        graphics.fillRect(x, y, 250, 125);
-        graphics.setColor(Color.black);
-        graphics.drawRect(x, y, 250, 125);
-        graphics.setFont(graphics.getFont().deriveFont(graphics.getFont().getSize() * 1.4F));
-
-        if (numberOfSuits == 0) {
-            graphics.drawString("Select Game Mode!", x + 23, y + 45);
-        } else if (isEnded()) {
-            graphics.drawString("Congratulations, you won!", x + 10, y + 45);
-            graphics.drawString("Final score: " + score, x + 20, y + 75);
+        graphics.drawImage(scoreBox, x, y, null);
+        graphics.drawImage(undoBox, (getWidth() + x) / 2, y + 30, null);
+    }
+
+    /**
+     * Draw an empty box filling an image, and get the graphics to draw its text,
+     * with the font and the rendering hints of the panel
+     */
+    private Graphics2D drawBox(BufferedImage image, Graphics2D panelGraphics) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHints(panelGraphics.getRenderingHints());
+        g.setFont(scoreFont);
+        g.setColor(SCORE_BOX_COLOR);
+        g.fillRect(0, 0, image.getWidth() - 1, image.getHeight() - 1);
+        g.setColor(Color.BLACK);
+        g.drawRect(0, 0, image.getWidth() - 1, image.getHeight() - 1);
+        return g;
+    }
+
+    /**
+     * Render the score box, with the score, the moves and the game number
+     */
+    private BufferedImage renderScoreBox(Graphics2D panelGraphics) {
+        BufferedImage image = new BufferedImage(251, 126, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = drawBox(image, panelGraphics);
+        if (snapshot.getNumberOfSuits() == 0) {
+            g.drawString("Select Game Mode!", 23, 45);
+        } else if (snapshot.isEnded()) {
+            g.drawString("Congratulations, you won!", 10, 45);
+            g.drawString("Final score: " + snapshot.getScore(), 20, 75);
+        } else if (winEstimates) {
+            /* four lines, the last with the probability to win */
+            g.drawString("Score: " + snapshot.getScore(), 60, 35);
+            g.drawString("Moves: " + snapshot.getNumberOfMoves(), 60, 60);
+            if (snapshot.getGameNumber() >= 0)
+                g.drawString("Game #" + snapshot.getGameNumber(), 60, 85);
+            g.drawString(formatWinEstimate(), 60, 110);
         } else {
-            graphics.drawString("Score: " + score, x + 60, y + 45);
-            graphics.drawString("Moves: " + moves.size(), x + 60, y + 75);
+            g.drawString("Score: " + snapshot.getScore(), 60, 45);
+            g.drawString("Moves: " + snapshot.getNumberOfMoves(), 60, 75);
         }
+        if (snapshot.getNumberOfSuits() != 0 && snapshot.getGameNumber() >= 0 && (!winEstimates || snapshot.isEnded()))
+            g.drawString("Game #" + snapshot.getGameNumber(), 60, 105);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Format the estimate of the probability to win, with the half width of its
+     * confidence interval
+     */
+    private String formatWinEstimate() {
+        if (winEstimate == null)
+            return "Win: ...";
+        long halfWidth = Math.round((winEstimate.upper() - winEstimate.lower()) * 50);
+        return "Win: " + Math.round(winEstimate.probability() * 100) + "% \u00B1" + Math.max(1, halfWidth) + "%";
+    }
 
-        y += 30;
-        x = (getWidth() + x) / 2;
-        graphics.setColor(SCORE_BOX_COLOR);
-        graphics.fillRect(x, y, 120, 60);
-        graphics.setColor(Color.BLACK);
-        graphics.drawRect(x, y, 120, 60);
-        graphics.drawString("UNDO", x + 30, y + 35);
+    /**
+     * Render the UNDO button
+     */
+    private BufferedImage renderUndoBox(Graphics2D panelGraphics) {
+        BufferedImage image = new BufferedImage(121, 61, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = drawBox(image, panelGraphics);
+        g.drawString("UNDO", 30, 35);
+        g.dispose();
+        return image;
     }
 
     /**
@@ -162,14 +534,14 @@ public final class GamePanel extends JPanel {
      * @param graphics graphics area
      */
     void drawExtraDecks(Graphics graphics) {
-        if (remainingDecks == 0) {
+        if (snapshot.getRemainingDeals() == 0) {
             graphics.setColor(SCORE_BOX_COLOR);
             graphics.fillRect(getWidth() - 20 - Card.WIDTH, getHeight() - 20 - Card.HEIGHT, Card.WIDTH, Card.HEIGHT);
             graphics.setColor(Color.BLACK);
             graphics.drawRect(getWidth() - 20 - Card.WIDTH, getHeight() - 20 - Card.HEIGHT, Card.WIDTH, Card.HEIGHT);
         } else {
-            for (int i = 0; i < remainingDecks; i++) {
-                Card.drawCardBack(new Point(getWidth() - i * 10 - 20 - Card.WIDTH, getHeight() - 20 - Card.HEIGHT), graphics);
+            for (int i = 0; i < snapshot.getRemainingDeals(); i++) {
+                Card.drawCardBack(graphics, getWidth() - i * 10 - 20 - Card.WIDTH, getHeight() - 20 - Card.HEIGHT);
             }
         }
     }
@@ -180,22 +552,36 @@ public final class GamePanel extends JPanel {
      * @param graphics graphics area
      */
     void drawCardDecks(Graphics graphics) {
-        int spaceBetweenCards = (getWidth() - 10 * Card.WIDTH) / 11;
         for (int i = 0; i < 10; i++) {
-            topDecks[i].paint(graphics, new Point(spaceBetweenCards * (i + 1) + Card.WIDTH * i, 20));
+            topDecks[i].paint(graphics, getDeckX(i), DECKS_Y);
         }
 
-        /* draw removed decks */
+        /* draw removed decks, as their kings */
         int x = 20;
         int y = getHeight() - Card.HEIGHT - 20;
-        for (Deck d : removedDecks) {
-            Card c = d.getFirstCard();
-            if (c != null)
-                c.paint(graphics, new Point(x, y));
+        for (int i = 0; i < display.getNumberOfCompletedRuns(); i++) {
+            Card.paint(graphics, Position.cardCode(display.getCompletedRunSuit(i), 13) | Position.FACE_UP, x, y);
             x += 20;
         }
     }
 
+    /**
+     * Get the x coordinate of an upper deck in the game area
+     *
+     * @param index deck index
+     * @return x coordinate of the deck
+     */
+    private int getDeckX(int index) {
+        if (getWidth() != layoutWidth) {
+            layoutWidth = getWidth();
+            int spaceBetweenCards = (layoutWidth - 10 * Card.WIDTH) / 11;
+            for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+                decksX[i] = spaceBetweenCards * (i + 1) + Card.WIDTH * i;
+            }
+        }
+        return decksX[index];
+    }
+
     /**
      * Draws the game area
      *
@@ -203,8 +589,82 @@ public final class GamePanel extends JPanel {
      */
     @Override
     protected void paintComponent(Graphics graphics) {
-        super.paintComponent(graphics);
+        updateSnapshot();
+        if (!firstFramePainted) {
+            firstFramePainted = true;
+            logger.info("first frame after " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        }
+        if (!CardImages.validate(getGraphicsConfiguration())) {
+            drawPlaceholder(graphics);
+            return;
+        }
+        if (!firstCardsPainted) {
+            firstCardsPainted = true;
+            logger.info("first frame with the cards after " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        }
+
+        if (!backingValid || backingConfiguration != getGraphicsConfiguration()
+                || backingWidth != getWidth() || backingHeight != getHeight())
+            renderBacking(graphics.getFont());
+
+        /* a plain copy, clipped to the dirty region when dragging */
+        if (backingScale == 1)
+            graphics.drawImage(backing, 0, 0, null);
+        else
+            graphics.drawImage(backing, 0, 0, getWidth(), getHeight(), null);
 
+        if (shownHint != null)
+            drawHint(graphics);
+
+        /* draw dragging deck if any */
+        if (draggingDeck != null)
+            draggingDeck.paint(graphics);
+    }
+
+    /**
+     * Draw the frame shown while the images are loaded: the table with the places
+     * of the decks, and an error if they couldn't be loaded
+     *
+     * @param graphics graphics area
+     */
+    private void drawPlaceholder(Graphics graphics) {
+        graphics.setColor(BACKGROUND_COLOR);
+        graphics.fillRect(0, 0, getWidth(), getHeight());
+        for (int i = 0; i < Position.NUMBER_OF_COLUMNS; i++) {
+            graphics.setColor(SCORE_BOX_COLOR);
+            graphics.fillRect(getDeckX(i), DECKS_Y, Card.WIDTH, Card.HEIGHT);
+            graphics.setColor(Color.BLACK);
+            graphics.drawRect(getDeckX(i), DECKS_Y, Card.WIDTH, Card.HEIGHT);
+        }
+        if (CardImages.hasFailed()) {
+            graphics.setColor(Color.WHITE);
+            graphics.drawString("Cannot load the card images", getDeckX(0), DECKS_Y + Card.HEIGHT + 20);
+        }
+    }
+
+    /**
+     * Render the backing layer: the background, the score area, the stock and the
+     * decks, in device pixels on scaled displays
+     *
+     * @param font font of the panel
+     */
+    private void renderBacking(Font font) {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        backingConfiguration = configuration;
+        backingScale = configuration == null ? 1 : configuration.getDefaultTransform().getScaleX();
+        backingWidth = getWidth();
+        backingHeight = getHeight();
+        int width = Math.max(1, (int) Math.ceil(getWidth() * backingScale));
+        int height = Math.max(1, (int) Math.ceil(getHeight() * backingScale));
+        if (backing == null || backing.getWidth() != width || backing.getHeight() != height) {
+            backing = configuration != null
+                    ? configuration.createCompatibleImage(width, height, Transparency.OPAQUE)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        Graphics2D graphics = backing.createGraphics();
+        graphics.scale(backingScale, backingScale);
+        graphics.setFont(font);
         graphics.setColor(BACKGROUND_COLOR);
         graphics.fillRect(0, 0, getWidth(), getHeight());
 
@@ -212,12 +672,22 @@ public final class GamePanel extends JPanel {
         drawExtraDecks(graphics);
 
         /* if game is started */
-        if (numberOfSuits != 0)
+        if (snapshot.getNumberOfSuits() != 0)
             drawCardDecks(graphics);
+        graphics.dispose();
+        backingValid = true;
+    }
 
-        /* draw dragging deck if any */
-        if (draggingDeck != null)
-            draggingDeck.paint(graphics);
+    /**
+     * Merge the drag events queued for the panel, as only the last position of the
+     * dragged cards has to be drawn
+     */
+    @Override
+    protected AWTEvent coalesceEvents(AWTEvent existingEvent, AWTEvent newEvent) {
+        if (existingEvent.getID() == MouseEvent.MOUSE_DRAGGED && newEvent.getID() == MouseEvent.MOUSE_DRAGGED
+                && ((MouseEvent) existingEvent).getModifiersEx() == ((MouseEvent) newEvent).getModifiersEx())
+            return newEvent;
+        return super.coalesceEvents(existingEvent, newEvent);
     }
 
     /**
@@ -238,196 +708,86 @@ public final class GamePanel extends JPanel {
     }
 
     /**
-     * Check if a move is valid. A move is valid if the lower card
-     * have a value that is equal to the value of the upper card - 1,
-     * if exists.
-     *
-     * @param upperCard upper card
-     * @param lowerCard lower card
-     * @return true only if the move is valid
-     */
-    private boolean validMove(Card upperCard, Card lowerCard) {
-        return upperCard == null || upperCard.value - lowerCard.value == 1;
-    }
-
-    /**
-     * Deal numberOfCards
+     * Deal a row of cards
      */
     public void dealCards() {
-        if (remainingDecks <= 0)
-            return; /* non ci sono più massi da distribuire */
-        for (Deck d : topDecks) {
-            if (d.isEmpty()) {
-                logger.info("Non posso dispensare le carte. È presente un buco!");
-                return;
-            }
-        }
-        remainingDecks -= 1;
-        score -= 1;
-        logger.info("Dispenso carte: mazzi rimanenti " + remainingDecks);
-        for (int i = 0; i < 10; i++) {
-            decks[remainingDecks][i].setVisible(true);
-            topDecks[i].addCard(decks[remainingDecks][i]);
-        }
-        moves.add(new DealCardsMove());
-        checkAndRemoveDecks();
-        possibleMoves = getPossibleMoves();
-        repaint();
+        model.dealCards();
     }
 
     /**
-     * Indicate if the game is ended (all decks removed)
-     *
-     * @return true only if the game is ended
+     * Undo last move
      */
-    public boolean isEnded() {
-        return removedDecks.size() == 8;
+    private void undoLastMove() {
+        model.undoLastMove();
     }
 
     /**
-     * Get a list of possible moves
-     *
-     * @return list of possible moves
-     * <p>
-     * TODO: this method is shit
+     * Redo the last move undone
      */
-    private List<MoveDeckMove> getPossibleMoves() {
-        LinkedList<MoveDeckMove> moves = new LinkedList<>();
-        for (int i = 0; i < 10; i++) {
-            Deck deck = topDecks[i];
-            for (int j = 0; j < deck.numberOfCards(); j++) {
-                Card bottomCard = deck.getCardByIndex(j);
-                if (deck.isOrderdered(j) && bottomCard.isVisible()) {
-                    for (int a = 0; a < 10; a++) {
-                        Card topCard = topDecks[a].getTopCard();
-                        if (i != a && validMove(topCard, bottomCard)) {
-                            MoveDeckMove move = new MoveDeckMove(i, a, deck.numberOfCards() - j, false);
-                            if (topCard == null || topCard.suit == bottomCard.suit)
-                                moves.addFirst(move);
-                            else
-                                moves.addLast(move);
-                        }
-                    }
-                }
-            }
-        }
-
-        return moves;
+    private void redoMove() {
+        model.redoMove();
     }
 
     /**
-     * Get game hint
+     * Get game hint. The hint is shown by {@link #paintComponent(Graphics)}: first the
+     * cards to move, then their destination.
      */
     public void getHint() {
-        if (possibleMoves.isEmpty())
+        if (hints == null) {
+            hintRequested = true; /* shown when computed */
+            return;
+        }
+        if (hints.isEmpty())
             return; /* no possibile moves */
-        try {
-            MoveDeckMove move = possibleMoves.remove(0);
-            possibleMoves.add(move);
-
-            Graphics2D g = (Graphics2D) getGraphics();
-            g.setColor(HINT_COLOR);
-
-            Stroke oldStroke = g.getStroke();
-            Stroke highWidthStroke = new BasicStroke(5);
-            g.setStroke(highWidthStroke);
-
-            Deck deck = topDecks[move.from];
-            Card card = deck.getCardByIndex(deck.numberOfCards() - move.numberOfCards);
-            g.drawRect(card.getPosition().x, card.getPosition().y, Card.WIDTH, Card.HEIGHT + move.numberOfCards * Deck.SPACE_BETWEEN_CARDS - Deck.SPACE_BETWEEN_CARDS);
-
-            Thread.sleep(400);
-            g.setStroke(oldStroke);
-            paint(g);
-            g.setStroke(highWidthStroke);
-            g.setColor(HINT_COLOR);
-
-            deck = topDecks[move.to];
-            card = deck.getTopCard();
-
-            if (card != null)
-                g.drawRect(card.getPosition().x, card.getPosition().y, Card.WIDTH, Card.HEIGHT);
-            else
-                g.drawRect(deck.getPosition().x, deck.getPosition().y, Card.WIDTH, Card.HEIGHT);
-
-            Thread.sleep(400);
-            g.setStroke(oldStroke);
-            paint(g);
-        } catch (InterruptedException e) {
-            logger.severe("This shouldn't have ever happened!");
-        }
-    }
-
-    private void undoMoveDeck(MoveDeckMove toUndo) {
-        score -= 1;
-        Deck from = topDecks[toUndo.to];
-        Deck to = topDecks[toUndo.from];
-        if (!toUndo.visible && to.getTopCard() != null)
-            to.getTopCard().setVisible(false);
-        Deck toMove = from.getSubDeck(from.numberOfCards() - toUndo.numberOfCards, true);
-        to.appendDeck(toMove);
+
+        shownHint = hints.get(nextHint);
+        nextHint = (nextHint + 1) % hints.size();
+        hintStep = 0;
+        hintTimer.restart();
         repaint();
     }
 
-    private void undoDealCards() {
-        score -= 1;
-        for (int i = 0; i < 10; i++) {
-            topDecks[i].getSubDeck(topDecks[i].numberOfCards() - 1, true);
-            Card topCard = topDecks[i].getTopCard();
-            if (topCard != null)
-                topCard.setVisible(true);
-        }
-        remainingDecks++;
+    /**
+     * Advance the hint animation, called by the hint timer
+     */
+    private void nextHintStep() {
+        if (++hintStep > 1)
+            stopHint();
         repaint();
     }
 
-    private void undoDeckRemoved(RemoveDeckMove toUndo) {
-        if (!toUndo.visible) {
-            Card topCard = topDecks[toUndo.index].getTopCard();
-            if (topCard != null)
-                topCard.setVisible(false);
+    /**
+     * Stop showing the hint
+     */
+    private void stopHint() {
+        hintTimer.stop();
+        if (shownHint != null) {
+            shownHint = null;
+            repaint();
         }
-        topDecks[toUndo.index].appendDeck(removedDecks.pop());
-        undoLastMove(); /* undo another move */
     }
 
     /**
-     * Undo last move
+     * Draw the hint that is shown, if any
+     *
+     * @param graphics graphics area
      */
-    private void undoLastMove() {
-        if (moves.empty())
-            return;
-        Move toUndo = moves.pop();
-        if (toUndo instanceof RemoveDeckMove)
-            undoDeckRemoved((RemoveDeckMove) toUndo);
-        if (toUndo instanceof DealCardsMove)
-            undoDealCards();
-        if (toUndo instanceof MoveDeckMove)
-            undoMoveDeck((MoveDeckMove) toUndo);
-    }
-
-    /**
-     * Check if is possible to remove a deck and if it is remove it
-     */
-    private void checkAndRemoveDecks() {
-        for (int j = 0; j < 10; j++) {
-            Deck d = topDecks[j];
-            if (d.getTopCard() != null && d.getTopCard().value != 1)
-                continue; /* la carta infondo ad un mazzetto non è un asse: non posso rimuoverlo */
-            for (int i = 0; i < d.numberOfCards(); i++) {
-                Card c = d.getCardByIndex(i);
-                if (c.isVisible() && c.value == 13 && d.isOrderdered(i)) {
-                    /* trovato mazzetto removibile */
-                    removedDecks.push(d.getSubDeck(i, true));
-                    moves.push(new RemoveDeckMove(j, d.numberOfCards() <= 0 || d.getTopCard().isVisible()));
-                    Card c2 = d.getTopCard();
-                    if (c2 != null)
-                        c2.setVisible(true); /* rende visibile la carta superiore sotto il mazzetto rimosso */
-                    score += 100;
-                    logger.info("One deck removed");
-                }
-            }
+    private void drawHint(Graphics graphics) {
+        Graphics2D g = (Graphics2D) graphics;
+        Stroke oldStroke = g.getStroke();
+        g.setColor(HINT_COLOR);
+        g.setStroke(HINT_STROKE);
+
+        if (hintStep == 0) {
+            Deck deck = topDecks[shownHint.from];
+            int y = deck.getCardY(deck.numberOfCards() - shownHint.numberOfCards);
+            g.drawRect(deck.getX(), y, Card.WIDTH, Card.HEIGHT + shownHint.numberOfCards * Deck.SPACE_BETWEEN_CARDS - Deck.SPACE_BETWEEN_CARDS);
+        } else {
+            Deck deck = topDecks[shownHint.to];
+            int y = deck.isEmpty() ? deck.getY() : deck.getCardY(deck.numberOfCards() - 1);
+            g.drawRect(deck.getX(), y, Card.WIDTH, Card.HEIGHT);
         }
+        g.setStroke(oldStroke);
     }
 
     /**
@@ -436,7 +796,6 @@ public final class GamePanel extends JPanel {
     private class GameEventListener implements MouseListener, MouseMotionListener, KeyListener {
 
         private Point offset;
-        private boolean visible;
 
         private boolean mouseIsInUndoBox(Point mousePosition) {
             int startX = ((getWidth() / 2) - 125 + getWidth()) / 2;
@@ -459,19 +818,22 @@ public final class GamePanel extends JPanel {
         private boolean mouseIsInDealCardsPosition(Point mousePosition) {
             return mousePosition.x > getWidth() - 200
                     && mousePosition.y > getHeight() - 200
-                    && remainingDecks > 0;
+                    && snapshot.getRemainingDeals() > 0;
         }
 
         @Override
         public void mousePressed(MouseEvent mouseEvent) {
             Point mousePosition = mouseEvent.getPoint();
+            updateSnapshot();
+            if (awaitedCommand != 0)
+                return; /* the last move is still being applied */
 
             if (mouseIsInUndoBox(mousePosition))
                 undoLastMove();
 
             if (mouseIsInScoreBox(mousePosition)) {
-                if (isEnded()) /* if game ended start a new game */
-                    startNewGame(numberOfSuits);
+                if (snapshot.isEnded()) /* if game ended start a new game */
+                    startNewGame(snapshot.getNumberOfSuits());
                 else
                     getHint();
             }
@@ -482,15 +844,16 @@ public final class GamePanel extends JPanel {
             for (int i = 0; i < 10; ++i) {
                 topDecks[i].flagLocation(mousePosition);
             }
+            flagged = true;
+            backingValid = false;
 
             Deck deck = selectDeckOnLocation(mousePosition, true);
             if (deck != null) {
+                stopHint(); /* the player is moving */
                 offset = deck.getPosition();
                 offset.translate(-mousePosition.x, -mousePosition.y);
                 draggingDeck = deck;
                 deck.unFlagLocation();
-                Card topCard = topDecks[deck.getIndex()].getTopCard();
-                visible = topCard != null && topCard.isVisible();
             }
             repaint();
 
@@ -501,49 +864,56 @@ public final class GamePanel extends JPanel {
             for (int i = 0; i < 10; ++i) {
                 topDecks[i].unFlagLocation();
             }
+            flagged = false;
+            backingValid = false;
 
-            if (draggingDeck != null) {
+            if (draggingDeck != null && awaitedCommand == 0) {
                 Deck deck = selectDeckOnLocation(mouseEvent.getPoint(), false);
-                if (deck != null && validMove(topDecks[deck.getIndex()].getTopCard(), draggingDeck.getFirstCard())) {
-                        deck = topDecks[deck.getIndex()];
-                        Card card = topDecks[draggingDeck.getIndex()].getTopCard();
-                        if (card != null)
-                            card.setVisible(true); /* set card under moved deck visible */
-                        deck.appendDeck(draggingDeck);
-                        moves.push(new MoveDeckMove(draggingDeck.getIndex(), deck.getIndex(), draggingDeck.numberOfCards(), visible));
-                        checkAndRemoveDecks();
-                        possibleMoves = getPossibleMoves();
-                        score -= 1;
-                } else {
-                    topDecks[draggingDeck.getIndex()].appendDeck(draggingDeck);
-                }
+                if (deck != null) /* the snapshot after the move also puts back the cards if it was not valid */
+                    awaitedCommand = model.moveCards(draggingDeck.getIndex(), deck.getIndex(), draggingDeck.numberOfCards());
+                else
+                    showSnapshot(model.getSnapshot());
             }
-            draggingDeck = null;
             repaint();
         }
 
         @Override
         public void mouseDragged(MouseEvent e) {
-            Point position = getMousePosition();
-
-            for (int i = 0; i < 10; ++i) {
-                topDecks[i].unFlagLocation();
+            if (flagged) {
+                for (int i = 0; i < 10; ++i) {
+                    topDecks[i].unFlagLocation();
+                }
+                flagged = false;
+                backingValid = false;
+                repaint();
             }
 
-            if (draggingDeck == null || position == null)
+            if (draggingDeck == null)
                 return;
 
-            position.translate(offset.x, offset.y);
-            draggingDeck.setPosition(position);
-            repaint();
+            /* repaint only the union of the old and the new bounds of the dragged cards */
+            int oldX = draggingDeck.getX();
+            int oldY = draggingDeck.getY();
+            draggingDeck.setPosition(e.getX() + offset.x, e.getY() + offset.y);
+            repaint(Math.min(oldX, draggingDeck.getX()), Math.min(oldY, draggingDeck.getY()),
+                    Math.abs(draggingDeck.getX() - oldX) + Card.WIDTH + 1,
+                    Math.abs(draggingDeck.getY() - oldY) + draggingDeck.getHeight() + 1);
         }
 
         @Override
         public void keyPressed(KeyEvent keyEvent) {
-            /* CTRL-Z - undo last move */
+            /* CTRL-Z - undo last move, CTRL-SHIFT-Z - redo */
             if ((keyEvent.getModifiersEx() & Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()) != 0
-                    && keyEvent.getKeyCode() == KeyEvent.VK_Z)
-                undoLastMove();
+                    && keyEvent.getKeyCode() == KeyEvent.VK_Z) {
+                if (keyEvent.isShiftDown())
+                    redoMove();
+                else
+                    undoLastMove();
+            }
+            /* CTRL-Y - redo last move undone */
+            if ((keyEvent.getModifiersEx() & Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()) != 0
+                    && keyEvent.getKeyCode() == KeyEvent.VK_Y)
+                redoMove();
             /* CTRL-H - get hint */
             if ((keyEvent.getModifiersEx() & Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()) != 0
                     && keyEvent.getKeyCode() == KeyEvent.VK_H)
@@ -574,33 +944,4 @@ public final class GamePanel extends JPanel {
         public void keyReleased(KeyEvent keyEvent) {
         }
     }
-
-    private static abstract class Move {}
-
-    private static final class DealCardsMove extends Move {}
-
-    private static final class RemoveDeckMove extends Move {
-        public final int index;
-        public final boolean visible;
-
-        public RemoveDeckMove(int index, boolean visible) {
-            this.index = index;
-            this.visible = visible;
-        }
-    }
-
-    private static final class MoveDeckMove extends Move {
-        public final int to;
-        public final int from;
-        public final int numberOfCards;
-        public final boolean visible;
-
-        public MoveDeckMove(int from, int to, int numberOfCards, boolean visible) {
-            this.to = to;
-            this.from = from;
-            this.numberOfCards = numberOfCards;
-            this.visible = visible;
-        }
-    }
-
 }
@@ -0,0 +1,148 @@
+package it.alerighi.spider;
+
+import java.util.SplittableRandom;
+
+/**
+ * Baseline bot strategy, that looks at one move only.
+ * <p>
+ * The value of a position is the sum of {@link #REVEALED_CARD} for each card
+ * turned face up, {@link #EMPTY_COLUMN} for each empty column and
+ * {@link #SAME_SUIT_LINK} for each card on a card of the same suit in sequence.
+ * The strategy does the move that raises the value the most, the first one in the
+ * same suit first order of the moves when they are equal, so it can't go back
+ * and forth between two positions. When no move raises the value it deals,
+ * filling the empty columns first with the moves that lower it the least, and
+ * when no card can be dealt it resigns.
+ * <p>
+ * A randomized strategy, as used by the playouts of the {@link WinEstimator},
+ * chooses at random among the moves that raise the value the same, and before
+ * dealing does some moves that don't change the value, chosen at random, so that
+ * the playouts of a position try different lines.
+ *
+ * @author Alessandro Righi
+ */
+public final class GreedyStrategy implements BotStrategy {
+
+    private static final int REVEALED_CARD = 1000;
+    private static final int EMPTY_COLUMN = 100;
+    private static final int SAME_SUIT_LINK = 10;
+
+    /**
+     * random choices of a randomized strategy, null for the first move in order
+     */
+    private final SplittableRandom random;
+
+    /**
+     * moves that don't change the value done before each deal
+     */
+    private final int neutralMoves;
+    private int neutralMovesLeft;
+
+    /**
+     * true while filling the empty columns to deal
+     */
+    private boolean dealing;
+
+    /**
+     * Create the baseline strategy
+     */
+    public GreedyStrategy() {
+        this(null, 0);
+    }
+
+    /**
+     * Create a randomized strategy
+     *
+     * @param random       random choices of the strategy
+     * @param neutralMoves number of moves that don't change the value to do before each deal
+     */
+    public GreedyStrategy(SplittableRandom random, int neutralMoves) {
+        this.random = random;
+        this.neutralMoves = neutralMoves;
+    }
+
+    @Override
+    public void newGame(int numberOfSuits) {
+        dealing = false;
+        neutralMovesLeft = neutralMoves;
+    }
+
+    @Override
+    public int chooseMove(Position position, int[] moves, int numberOfMoves, boolean canDeal) {
+        if (dealing && canDeal) {
+            dealing = false;
+            neutralMovesLeft = neutralMoves;
+            return Game.DEAL_CARDS;
+        }
+
+        int best = RESIGN;
+        int bestGain = dealing ? Integer.MIN_VALUE : 0;
+        int ties = 0;
+        int neutral = RESIGN;
+        int neutralCount = 0;
+        for (int i = 0; i < numberOfMoves; i++) {
+            int move = moves[i];
+            /* a whole column moved to an empty one would leave another empty column */
+            if (dealing && (position.numberOfCards(Game.moveTo(move)) != 0
+                    || Game.moveNumberOfCards(move) == position.numberOfCards(Game.moveFrom(move))))
+                continue;
+            int gain = gain(position, move);
+            if (gain > bestGain) {
+                best = move;
+                bestGain = gain;
+                ties = 1;
+            } else if (random != null && gain == bestGain && best != RESIGN && random.nextInt(++ties) == 0) {
+                best = move;
+            }
+            if (random != null && gain == 0 && !dealing && position.numberOfCards(Game.moveTo(move)) != 0
+                    && random.nextInt(++neutralCount) == 0)
+                neutral = move;
+        }
+        if (best != RESIGN || dealing)
+            return best;
+
+        if (neutral != RESIGN && neutralMovesLeft > 0) {
+            neutralMovesLeft--;
+            return neutral;
+        }
+        if (canDeal) {
+            neutralMovesLeft = neutralMoves;
+            return Game.DEAL_CARDS;
+        }
+        if (position.getRemainingDeals() > 0) {
+            /* there are empty columns to fill before dealing */
+            dealing = true;
+            return chooseMove(position, moves, numberOfMoves, false);
+        }
+        return RESIGN;
+    }
+
+    /**
+     * Change of the value of the position made by a move
+     *
+     * @param position position
+     * @param move     legal move
+     * @return change of the value
+     */
+    static int gain(Position position, int move) {
+        int from = Game.moveFrom(move);
+        int to = Game.moveTo(move);
+        int bottom = position.numberOfCards(from) - Game.moveNumberOfCards(move);
+        int faceDown = position.getFirstFaceUp(from);
+        int card = position.getCard(from, bottom);
+
+        int gain = 0;
+        if (bottom == faceDown && faceDown > 0)
+            gain += REVEALED_CARD;
+        if (bottom == 0)
+            gain += EMPTY_COLUMN;
+        if (bottom > faceDown && Position.inSequence(position.getCard(from, bottom - 1), card))
+            gain -= SAME_SUIT_LINK;
+        int top = position.getTopCard(to);
+        if (top < 0)
+            gain -= EMPTY_COLUMN;
+        else if (Position.suitOf(top) == Position.suitOf(card))
+            gain += SAME_SUIT_LINK;
+        return gain;
+    }
+}
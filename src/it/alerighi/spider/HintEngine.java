@@ -0,0 +1,239 @@
+package it.alerighi.spider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lookahead hint engine: finds the move that leads to the best position a few
+ * moves ahead, within a time budget.
+ * <p>
+ * The search is a beam search: at each depth all the moves of the positions in
+ * the beam are tried, and the best positions found become the beam of the next
+ * depth. Positions already seen are skipped. When the time is over the engine
+ * returns the first move of the line to the best position found so far. Dealing
+ * is never suggested, as the original hints.
+ *
+ * @author Alessandro Righi
+ */
+public final class HintEngine {
+
+    public static final long DEFAULT_BUDGET = 150;
+    public static final int DEFAULT_BEAM_WIDTH = 64;
+    public static final int MAX_DEPTH = 16;
+
+    /**
+     * weights of the evaluation of a position
+     */
+    private static final int WIN = 1000000;
+    private static final int COMPLETED_RUN = 1000;
+    private static final int FACE_DOWN_CARD = -30;
+    private static final int EMPTY_COLUMN = 60;
+    private static final int SAME_SUIT_PAIR = 10;
+    private static final int ORDERED_PAIR = 4;
+
+    private static final int TABLE_BITS = 16;
+
+    /**
+     * Result of a search
+     */
+    public static final class Result {
+        /**
+         * best move, encoded as in {@link Game#encodeMove(int, int, int)}, -1 if there are no moves
+         */
+        public final int move;
+        /**
+         * evaluation of the best position found
+         */
+        public final int score;
+        public final long nodes;
+        /**
+         * depth of the last completed search level
+         */
+        public final int depth;
+        public final long milliseconds;
+
+        Result(int move, int score, long nodes, int depth, long milliseconds) {
+            this.move = move;
+            this.score = score;
+            this.nodes = nodes;
+            this.depth = depth;
+            this.milliseconds = milliseconds;
+        }
+
+        @Override
+        public String toString() {
+            if (move == -1)
+                return String.format("no moves, %d ms", milliseconds);
+            return String.format("move %d -> %d (%d cards), score %d, %d nodes, depth %d, %d ms",
+                    Game.moveFrom(move), Game.moveTo(move), Game.moveNumberOfCards(move), score, nodes, depth, milliseconds);
+        }
+    }
+
+    /**
+     * Position in the beam, with the first move of the line that leads to it
+     */
+    private static final class Node {
+        final Game game;
+        final int firstMove;
+
+        Node(Game game, int firstMove) {
+            this.game = game;
+            this.firstMove = firstMove;
+        }
+    }
+
+    /**
+     * Position reachable with a move from a position in the beam
+     */
+    private static final class Candidate {
+        final Node parent;
+        final int move;
+        final int score;
+
+        Candidate(Node parent, int move, int score) {
+            this.parent = parent;
+            this.move = move;
+            this.score = score;
+        }
+    }
+
+    private final long budget;
+    private final int beamWidth;
+
+    /**
+     * Create a hint engine
+     *
+     * @param budget    time of a search in milliseconds
+     * @param beamWidth number of positions kept at each depth
+     */
+    public HintEngine(long budget, int beamWidth) {
+        if (budget <= 0 || beamWidth <= 0)
+            throw new IllegalArgumentException("Budget and beam width must be positive!");
+        this.budget = budget;
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     * Get the time budget of a search
+     *
+     * @return budget in milliseconds
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Search the best move of a game. The game is not modified. The search also
+     * stops if the thread is interrupted.
+     *
+     * @param game game to search
+     * @return result of the search
+     */
+    public Result search(Game game) {
+        long start = System.nanoTime();
+        long deadline = start + budget * 1000000;
+        TranspositionTable seen = new TranspositionTable(TABLE_BITS);
+        seen.add(game.getHash());
+
+        List<Node> beam = new ArrayList<>();
+        beam.add(new Node(new Game(game), -1));
+        int[] moves = new int[Game.MAX_MOVES];
+        int bestMove = -1;
+        int bestScore = Integer.MIN_VALUE;
+        long nodes = 0;
+        int depth = 0;
+        boolean timeout = false;
+
+        while (depth < MAX_DEPTH && !timeout) {
+            List<Candidate> candidates = new ArrayList<>();
+            for (int i = 0; i < beam.size() && !timeout; i++) {
+                Node node = beam.get(i);
+                int n = node.game.generateCanonicalMoves(moves);
+                for (int j = 0; j < n; j++) {
+                    if (System.nanoTime() > deadline || Thread.currentThread().isInterrupted()) {
+                        timeout = true;
+                        break;
+                    }
+                    node.game.doMove(moves[j]);
+                    nodes++;
+                    if (seen.add(node.game.getHash()))
+                        candidates.add(new Candidate(node, moves[j], evaluate(node.game)));
+                    node.game.undoLastMove();
+                }
+            }
+            if (candidates.isEmpty())
+                break;
+
+            /* stable sort: with equal score, the moves on the same suit first */
+            candidates.sort((a, b) -> Integer.compare(b.score, a.score));
+            Candidate best = candidates.get(0);
+            if (best.score > bestScore || bestMove == -1) {
+                bestScore = best.score;
+                bestMove = best.parent.firstMove == -1 ? best.move : best.parent.firstMove;
+            }
+            if (timeout || best.score == WIN)
+                break;
+
+            depth++;
+            List<Node> next = new ArrayList<>(beamWidth);
+            for (int i = 0; i < candidates.size() && i < beamWidth; i++) {
+                Candidate candidate = candidates.get(i);
+                Game copy = new Game(candidate.parent.game);
+                copy.doMove(candidate.move);
+                next.add(new Node(copy, candidate.parent.firstMove == -1 ? candidate.move : candidate.parent.firstMove));
+            }
+            beam = next;
+        }
+        return new Result(bestMove, bestScore, nodes, depth, (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Evaluate a position: completed runs, face up cards, empty columns and cards
+     * in sequence are better
+     *
+     * @param game game in the position to evaluate
+     * @return score, higher is better
+     */
+    static int evaluate(Game game) {
+        if (game.isEnded())
+            return WIN;
+        Position position = game.getPosition();
+        int score = position.getNumberOfCompletedRuns() * COMPLETED_RUN;
+        for (int column = 0; column < Position.NUMBER_OF_COLUMNS; column++) {
+            int size = position.numberOfCards(column);
+            if (size == 0) {
+                score += EMPTY_COLUMN;
+                continue;
+            }
+            int first = position.getFirstFaceUp(column);
+            score += first * FACE_DOWN_CARD;
+            for (int i = first + 1; i < size; i++) {
+                int lower = position.getCard(column, i - 1);
+                int upper = position.getCard(column, i);
+                if (Position.inSequence(lower, upper))
+                    score += SAME_SUIT_PAIR;
+                else if (Position.valueOf(lower) - Position.valueOf(upper) == 1)
+                    score += ORDERED_PAIR;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Search the first position of a deal with increasing budgets, to choose the
+     * budget for a machine. Arguments: number of suits, deal seed, beam width.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int suits = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int beamWidth = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BEAM_WIDTH;
+
+        Game game = new Game();
+        game.newGame(suits, seed);
+        for (long budget : new long[]{10, 50, 150, 500, 1000}) {
+            System.out.println("budget " + budget + " ms: " + new HintEngine(budget, beamWidth).search(game));
+        }
+    }
+}
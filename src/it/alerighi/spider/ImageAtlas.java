@@ -0,0 +1,242 @@
+package it.alerighi.spider;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Atlas of the images of the game: all the images in a single resource file, so
+ * that they are read with one stream and decoded in parallel.
+ * <p>
+ * The atlas is built from the PNG images of the resources by {@link #main(String[])},
+ * that must be run again when the images change. The images larger than three
+ * times a card are scaled down, as they are never drawn larger. The file has a
+ * header with the magic "SPIA", the version and the number of images, an index
+ * with the name, the width, the height and the compressed length of each image,
+ * and then the pixels of the images, as ARGB integers compressed with deflate.
+ *
+ * @author Alessandro Righi
+ */
+public final class ImageAtlas {
+
+    /**
+     * name of the atlas in the resources
+     */
+    static final String RESOURCE_NAME = "images.atlas";
+
+    private static final int MAGIC = 0x53504941; /* "SPIA" */
+    private static final int VERSION = 1;
+
+    /**
+     * maximum size of an image in the atlas
+     */
+    private static final int MAX_WIDTH = Card.WIDTH * 3;
+    private static final int MAX_HEIGHT = Card.HEIGHT * 3;
+
+    private ImageAtlas() {
+    }
+
+    /**
+     * Read an atlas, decoding its images in parallel
+     *
+     * @param input    stream of the atlas
+     * @param executor executor where the images are decoded
+     * @return images by name, as TYPE_INT_ARGB
+     * @throws IOException if the atlas can't be read or is not valid
+     */
+    static Map<String, BufferedImage> read(InputStream input, ExecutorService executor) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+        if (data.readInt() != MAGIC || data.readByte() != VERSION)
+            throw new IOException("Not an image atlas or unsupported version");
+
+        int count = data.readUnsignedShort();
+        String[] names = new String[count];
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = data.readUTF();
+            widths[i] = data.readUnsignedShort();
+            heights[i] = data.readUnsignedShort();
+            lengths[i] = data.readInt();
+        }
+
+        /* the stream is read in order, each image is decoded while the next ones are read */
+        List<Future<BufferedImage>> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] compressed = new byte[lengths[i]];
+            data.readFully(compressed);
+            int width = widths[i];
+            int height = heights[i];
+            images.add(executor.submit(() -> decode(compressed, width, height)));
+        }
+
+        Map<String, BufferedImage> result = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                result.put(names[i], images.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding the images");
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot decode an image of the atlas", e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Decode the pixels of an image
+     *
+     * @param compressed compressed pixels
+     * @param width      width of the image
+     * @param height     height of the image
+     * @return the image
+     * @throws IOException if the pixels are not valid
+     */
+    private static BufferedImage decode(byte[] compressed, int width, int height) throws IOException {
+        byte[] pixels = new byte[width * height * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < pixels.length && !inflater.finished()) {
+                int n = inflater.inflate(pixels, length, pixels.length - length);
+                if (n == 0 && inflater.needsInput())
+                    break;
+                length += n;
+            }
+            if (length != pixels.length)
+                throw new IOException("Truncated image");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted image", e);
+        } finally {
+            inflater.end();
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        ByteBuffer.wrap(pixels).asIntBuffer().get(raster);
+        return image;
+    }
+
+    /**
+     * Write the PNG images of a directory to an atlas, in the order of their names
+     *
+     * @param directory directory of the images
+     * @param output    stream where to write the atlas
+     * @throws IOException if an image can't be read or the atlas can't be written
+     */
+    static void write(File directory, OutputStream output) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null)
+            throw new IOException("Cannot list " + directory);
+        Arrays.sort(files);
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+        byte[][] compressed = new byte[files.length][];
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeShort(files.length);
+        for (int i = 0; i < files.length; i++) {
+            BufferedImage image = ImageIO.read(files[i]);
+            if (image == null)
+                throw new IOException("Cannot read " + files[i]);
+            image = fit(image);
+            compressed[i] = encode(image);
+            String name = files[i].getName();
+            data.writeUTF(name.substring(0, name.length() - ".png".length()));
+            data.writeShort(image.getWidth());
+            data.writeShort(image.getHeight());
+            data.writeInt(compressed[i].length);
+        }
+        for (byte[] pixels : compressed) {
+            data.write(pixels);
+        }
+        data.flush();
+    }
+
+    /**
+     * Scale an image down to the maximum size, keeping its proportions, halving it
+     * while it's more than twice the size and then with bilinear interpolation
+     *
+     * @param image image to scale
+     * @return the image, as TYPE_INT_ARGB
+     */
+    private static BufferedImage fit(BufferedImage image) {
+        double scale = Math.min(1, Math.min((double) MAX_WIDTH / image.getWidth(), (double) MAX_HEIGHT / image.getHeight()));
+        int width = (int) Math.round(image.getWidth() * scale);
+        int height = (int) Math.round(image.getHeight() * scale);
+
+        BufferedImage current = image;
+        while (current.getWidth() >= width * 2 && current.getHeight() >= height * 2)
+            current = resize(current, current.getWidth() / 2, current.getHeight() / 2);
+        return resize(current, width, height);
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = result.createGraphics();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return result;
+    }
+
+    /**
+     * Compress the pixels of an image
+     *
+     * @param image image, as TYPE_INT_ARGB
+     * @return compressed pixels
+     */
+    private static byte[] encode(BufferedImage image) {
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        ByteBuffer pixels = ByteBuffer.allocate(raster.length * 4);
+        pixels.asIntBuffer().put(raster);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(pixels.array());
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished()) {
+            result.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return result.toByteArray();
+    }
+
+    /**
+     * Build the atlas of the images of the game, to be run when the images change.
+     * Arguments: directory of the images (default res/it/alerighi/spider), output
+     * file (default the atlas in the same directory).
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        File directory = new File(args.length > 0 ? args[0] : "res/it/alerighi/spider");
+        File output = args.length > 1 ? new File(args[1]) : new File(directory, RESOURCE_NAME);
+        try (OutputStream stream = new FileOutputStream(output)) {
+            write(directory, stream);
+        } catch (IOException e) {
+            System.err.println("Cannot build the atlas: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("atlas written to " + output + ", " + output.length() + " bytes");
+    }
+}
@@ -0,0 +1,716 @@
+package it.alerighi.spider;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact representation of a game position, stored in a single byte array.
+ * <p>
+ * Each card is a byte, suit * 13 + value - 1, plus {@link #FACE_UP} when the card
+ * is face up. The array contains:
+ * <ul>
+ * <li>the end offset of each of the 10 columns in the card area (column 0 starts at 0)</li>
+ * <li>for each column, the length of the ordered run of face up cards of the same suit
+ * on top, and the number of face down cards at the bottom</li>
+ * <li>the number of stock rows still to deal and the number of completed runs</li>
+ * <li>the suits of the completed runs</li>
+ * <li>the card area: the columns one after the other, from bottom to top,
+ * and at its end the stock rows, the next row to deal being the first one</li>
+ * </ul>
+ * The run lengths and the face down counts are kept up to date by every operation,
+ * in constant time, so move generation doesn't need to scan the columns. The same
+ * holds for the {@link Zobrist} hash of the position, that is kept out of the array.
+ * <p>
+ * There is always at least one free row between the last column and the stock,
+ * so dealing never overwrites the row being dealt. Unused bytes are always zero,
+ * so two positions are equal if and only if their arrays are equal, and copying
+ * a position is a single array copy.
+ *
+ * @author Alessandro Righi
+ */
+public final class Position {
+
+    public static final int NUMBER_OF_COLUMNS = 10;
+    public static final int NUMBER_OF_DEALS = 5;
+    public static final int RUNS_TO_WIN = 8;
+    public static final int NUMBER_OF_CARDS = 104;
+
+    /**
+     * bit of a card byte set when the card is face up
+     */
+    public static final int FACE_UP = 0x40;
+
+    private static final int COLUMN_END = 0;
+    private static final int RUN_LENGTH = COLUMN_END + NUMBER_OF_COLUMNS;
+    private static final int FACE_DOWN = RUN_LENGTH + NUMBER_OF_COLUMNS;
+    private static final int STOCK_ROWS = FACE_DOWN + NUMBER_OF_COLUMNS;
+    private static final int COMPLETED_RUNS = STOCK_ROWS + 1;
+    private static final int RUN_SUITS = COMPLETED_RUNS + 1;
+    private static final int CARDS = RUN_SUITS + RUNS_TO_WIN;
+    private static final int CARDS_SIZE = NUMBER_OF_CARDS + NUMBER_OF_COLUMNS;
+
+    /**
+     * size in bytes of a position
+     */
+    public static final int SIZE = CARDS + CARDS_SIZE;
+
+    /**
+     * maximum size in bytes of the compact form of a position, see {@link #writeTo(ByteBuffer)}
+     */
+    public static final int MAX_ENCODED_SIZE = 2 + RUNS_TO_WIN + NUMBER_OF_COLUMNS + NUMBER_OF_CARDS;
+
+    private final byte[] data;
+
+    /**
+     * Zobrist hash of the position
+     */
+    private long hash;
+
+    /**
+     * Create an empty position, with no cards
+     */
+    public Position() {
+        data = new byte[SIZE];
+    }
+
+    /**
+     * Create a copy of a position
+     *
+     * @param position position to copy
+     */
+    public Position(Position position) {
+        data = position.data.clone();
+        hash = position.hash;
+    }
+
+    /**
+     * Create the initial position of a game from a shuffled deck: the first 50 cards
+     * are the stock, the next 24 go in the first 4 columns, the last 30 in the other 6.
+     *
+     * @param deck the 104 cards of the deck, face down
+     * @return the position
+     */
+    public static Position deal(byte[] deck) {
+        Position position = new Position();
+        position.dealFrom(deck);
+        return position;
+    }
+
+    /**
+     * Replace this position with the initial position of a game, as {@link #deal(byte[])}
+     * but without allocating a new position
+     *
+     * @param deck the 104 cards of the deck, face down
+     */
+    public void dealFrom(byte[] deck) {
+        if (deck.length != NUMBER_OF_CARDS)
+            throw new IllegalArgumentException("A deck must have " + NUMBER_OF_CARDS + " cards!");
+        Arrays.fill(data, (byte) 0);
+
+        System.arraycopy(deck, 50, data, CARDS, 54);
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            int end = i < 4 ? 6 * (i + 1) : 24 + 5 * (i - 3);
+            data[COLUMN_END + i] = (byte) end;
+            data[CARDS + end - 1] |= FACE_UP;
+            data[RUN_LENGTH + i] = 1;
+            data[FACE_DOWN + i] = (byte) (end - (i == 0 ? 0 : data[COLUMN_END + i - 1]) - 1);
+        }
+
+        /* row 0 of the deck is dealt last, so it goes at the end */
+        for (int i = 0; i < NUMBER_OF_DEALS; i++) {
+            System.arraycopy(deck, i * NUMBER_OF_COLUMNS, data, CARDS + CARDS_SIZE - (i + 1) * NUMBER_OF_COLUMNS, NUMBER_OF_COLUMNS);
+        }
+        data[STOCK_ROWS] = NUMBER_OF_DEALS;
+        hash = computeHash();
+    }
+
+    /**
+     * Encode a card as a byte
+     *
+     * @param suit  suit of the card (0-3)
+     * @param value value of the card (1-13)
+     * @return card code, suit * 13 + value - 1, face down
+     */
+    public static byte cardCode(int suit, int value) {
+        return (byte) (suit * 13 + value - 1);
+    }
+
+    /**
+     * Get the suit of a card
+     *
+     * @param card card code
+     * @return suit (0-3)
+     */
+    public static int suitOf(int card) {
+        return (card & ~FACE_UP) / 13;
+    }
+
+    /**
+     * Get the value of a card
+     *
+     * @param card card code
+     * @return value (1-13)
+     */
+    public static int valueOf(int card) {
+        return (card & ~FACE_UP) % 13 + 1;
+    }
+
+    /**
+     * Check if a card is face up
+     *
+     * @param card card code
+     * @return true only if the card is face up
+     */
+    public static boolean isFaceUp(int card) {
+        return (card & FACE_UP) != 0;
+    }
+
+    /**
+     * Check if a card can stay on top of another in a run: same suit, and value
+     * lower by one
+     *
+     * @param lower card below
+     * @param upper card above
+     * @return true only if they are in sequence
+     */
+    public static boolean inSequence(int lower, int upper) {
+        return (lower & ~FACE_UP) - (upper & ~FACE_UP) == 1 && suitOf(lower) == suitOf(upper);
+    }
+
+    /**
+     * Copy another position into this one
+     *
+     * @param position position to copy
+     */
+    public void copyFrom(Position position) {
+        System.arraycopy(position.data, 0, data, 0, SIZE);
+        hash = position.hash;
+    }
+
+    /**
+     * Get the 64 bit Zobrist hash of the position. Equal positions have the same hash.
+     *
+     * @return hash
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Compute the hash of the position from scratch
+     */
+    private long computeHash() {
+        long hash = Zobrist.stockRows(data[STOCK_ROWS]);
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            int start = start(i);
+            for (int j = 0; j < end(i) - start; j++) {
+                hash ^= Zobrist.card(i, j, data[start + j]);
+            }
+            hash ^= Zobrist.faceDown(i, data[FACE_DOWN + i]);
+        }
+        for (int suit = 0; suit < 4; suit++) {
+            hash ^= Zobrist.completedRuns(suit, countCompletedRuns(suit));
+        }
+        return hash;
+    }
+
+    private int start(int column) {
+        return column == 0 ? CARDS : CARDS + data[COLUMN_END + column - 1];
+    }
+
+    private int end(int column) {
+        return CARDS + data[COLUMN_END + column];
+    }
+
+    /**
+     * Get the number of cards in a column
+     *
+     * @param column column index
+     * @return number of cards
+     */
+    public int numberOfCards(int column) {
+        return end(column) - start(column);
+    }
+
+    /**
+     * Get the total number of cards in the tableau
+     *
+     * @return number of cards in the columns
+     */
+    public int numberOfCardsInTableau() {
+        return data[COLUMN_END + NUMBER_OF_COLUMNS - 1];
+    }
+
+    /**
+     * Get a card of a column
+     *
+     * @param column column index
+     * @param index  index of the card, 0 is the bottom card
+     * @return card code
+     */
+    public byte getCard(int column, int index) {
+        return data[start(column) + index];
+    }
+
+    /**
+     * Turn face up the top card of a column
+     *
+     * @param column column index
+     * @return true if the column was empty or the top card was already face up
+     */
+    public boolean revealTopCard(int column) {
+        int end = end(column);
+        if (end == start(column) || isFaceUp(data[end - 1]))
+            return true;
+        data[end - 1] |= FACE_UP;
+        setFaceDown(column, data[FACE_DOWN + column] - 1);
+        data[RUN_LENGTH + column] = 1;
+        return false;
+    }
+
+    /**
+     * Turn face down the top card of a column, the reverse of {@link #revealTopCard(int)}
+     *
+     * @param column column index
+     */
+    public void hideTopCard(int column) {
+        int end = end(column);
+        if (end == start(column))
+            return;
+        data[end - 1] &= ~FACE_UP;
+        setFaceDown(column, end - start(column));
+        data[RUN_LENGTH + column] = 0;
+    }
+
+    /**
+     * Get the length of the ordered run of face up cards of the same suit on top of a column
+     *
+     * @param column column index
+     * @return number of cards of the run, 0 if the column is empty
+     */
+    public int getRunLength(int column) {
+        return data[RUN_LENGTH + column];
+    }
+
+    /**
+     * Get the index of the first face up card of a column
+     *
+     * @param column column index
+     * @return index of the card, equal to the number of face down cards
+     */
+    public int getFirstFaceUp(int column) {
+        return data[FACE_DOWN + column];
+    }
+
+    private void setFaceDown(int column, int count) {
+        hash ^= Zobrist.faceDown(column, data[FACE_DOWN + column]) ^ Zobrist.faceDown(column, count);
+        data[FACE_DOWN + column] = (byte) count;
+    }
+
+    /**
+     * Get the top card of a column
+     *
+     * @param column column index
+     * @return card code, -1 if the column is empty
+     */
+    public int getTopCard(int column) {
+        int end = end(column);
+        return end == start(column) ? -1 : data[end - 1];
+    }
+
+    /**
+     * Check if a column is ordered and face up from an index to the top (so it can be moved)
+     *
+     * @param column column index
+     * @param index  start index
+     * @return true only if is ordered
+     */
+    public boolean isOrdered(int column, int index) {
+        return index >= numberOfCards(column) - data[RUN_LENGTH + column];
+    }
+
+    /**
+     * Compute the length of the run on top of a column. A run is at most 13 cards,
+     * so this takes constant time.
+     */
+    private void updateRunLength(int column) {
+        int start = start(column);
+        int end = end(column);
+        int run = 0;
+        if (end > start && isFaceUp(data[end - 1])) {
+            run = 1;
+            for (int i = end - 1; i > start && isFaceUp(data[i - 1]) && inSequence(data[i - 1], data[i]); i--) {
+                run++;
+            }
+        }
+        data[RUN_LENGTH + column] = (byte) run;
+        if (data[FACE_DOWN + column] > end - start)
+            setFaceDown(column, end - start);
+    }
+
+    /**
+     * Get the length of the run on top of a column after adding face up cards
+     *
+     * @param column        column index
+     * @param top           top card of the column before adding the cards, -1 if empty
+     * @param bottom        first card added
+     * @param numberOfCards number of cards added, that are a run
+     * @return the new run length
+     */
+    private int runLengthAfterAdding(int column, int top, int bottom, int numberOfCards) {
+        if (top >= 0 && isFaceUp(top) && inSequence(top, bottom))
+            return data[RUN_LENGTH + column] + numberOfCards;
+        return numberOfCards;
+    }
+
+    /**
+     * Add a card on top of a column
+     *
+     * @param column column index
+     * @param card   card code
+     */
+    public void push(int column, byte card) {
+        int end = end(column);
+        int size = end - start(column);
+        hash ^= Zobrist.card(column, size, card);
+        if (isFaceUp(card)) {
+            data[RUN_LENGTH + column] = (byte) runLengthAfterAdding(column, getTopCard(column), card, 1);
+        } else {
+            data[RUN_LENGTH + column] = 0;
+            setFaceDown(column, size + 1);
+        }
+        int tableauEnd = CARDS + numberOfCardsInTableau();
+        System.arraycopy(data, end, data, end + 1, tableauEnd - end);
+        data[end] = card;
+        for (int i = column; i < NUMBER_OF_COLUMNS; i++) {
+            data[COLUMN_END + i]++;
+        }
+    }
+
+    /**
+     * Remove cards from the top of a column
+     *
+     * @param column        column index
+     * @param numberOfCards number of cards to remove
+     */
+    public void pop(int column, int numberOfCards) {
+        int end = end(column);
+        int size = end - start(column);
+        for (int i = 1; i <= numberOfCards; i++) {
+            hash ^= Zobrist.card(column, size - i, data[end - i]);
+        }
+        int tableauEnd = CARDS + numberOfCardsInTableau();
+        System.arraycopy(data, end, data, end - numberOfCards, tableauEnd - end);
+        Arrays.fill(data, tableauEnd - numberOfCards, tableauEnd, (byte) 0);
+        for (int i = column; i < NUMBER_OF_COLUMNS; i++) {
+            data[COLUMN_END + i] -= numberOfCards;
+        }
+        cardsRemoved(column, numberOfCards);
+    }
+
+    /**
+     * Update the run length of a column after removing cards from its top
+     */
+    private void cardsRemoved(int column, int numberOfCards) {
+        if (numberOfCards < data[RUN_LENGTH + column])
+            data[RUN_LENGTH + column] -= numberOfCards;
+        else
+            updateRunLength(column);
+    }
+
+    /**
+     * Move face up cards from the top of a column to the top of another
+     *
+     * @param from          source column
+     * @param to            destination column
+     * @param numberOfCards number of cards to move
+     */
+    public void move(int from, int to, int numberOfCards) {
+        if (from == to)
+            return;
+        int run = Math.min(numberOfCards, data[RUN_LENGTH + from]);
+        if (run == numberOfCards)
+            run = runLengthAfterAdding(to, getTopCard(to), data[end(from) - numberOfCards], numberOfCards);
+
+        int fromEnd = end(from);
+        int fromIndex = numberOfCards(from) - numberOfCards;
+        int toIndex = numberOfCards(to);
+        for (int i = 0; i < numberOfCards; i++) {
+            int card = data[fromEnd - numberOfCards + i];
+            hash ^= Zobrist.card(from, fromIndex + i, card) ^ Zobrist.card(to, toIndex + i, card);
+        }
+
+        if (from < to) {
+            /* the moved cards go after the cards of the columns in between */
+            int end = end(from);
+            rotate(end - numberOfCards, end, end(to));
+            for (int i = from; i < to; i++) {
+                data[COLUMN_END + i] -= numberOfCards;
+            }
+        } else if (from > to) {
+            /* the moved cards go before the cards of the columns in between */
+            int end = end(to);
+            rotate(end, end(from) - numberOfCards, end(from));
+            for (int i = to; i < from; i++) {
+                data[COLUMN_END + i] += numberOfCards;
+            }
+        }
+        data[RUN_LENGTH + to] = (byte) run;
+        cardsRemoved(from, numberOfCards);
+    }
+
+    /**
+     * Swap the adjacent ranges [a, b) and [b, c) of the array
+     */
+    private void rotate(int a, int b, int c) {
+        reverse(a, b);
+        reverse(b, c);
+        reverse(a, c);
+    }
+
+    private void reverse(int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            byte tmp = data[i];
+            data[i] = data[j];
+            data[j] = tmp;
+        }
+    }
+
+    /**
+     * Get the number of remaining rows to deal
+     *
+     * @return remaining deals [0, 5]
+     */
+    public int getRemainingDeals() {
+        return data[STOCK_ROWS];
+    }
+
+    /**
+     * Get a card of the stock
+     *
+     * @param row    row of the stock, the next to deal is the last remaining one
+     * @param column column where the card will be dealt
+     * @return card code
+     */
+    public byte getStockCard(int row, int column) {
+        return data[CARDS + CARDS_SIZE - (row + 1) * NUMBER_OF_COLUMNS + column];
+    }
+
+    /**
+     * Deal the next row of the stock, one card face up on each column
+     */
+    public void dealRow() {
+        int rows = data[STOCK_ROWS];
+        int row = CARDS + CARDS_SIZE - rows * NUMBER_OF_COLUMNS;
+        /* columns grow in the free row, process them from the last so nothing is overwritten */
+        for (int i = NUMBER_OF_COLUMNS - 1; i >= 0; i--) {
+            int start = start(i);
+            int end = end(i);
+            byte card = (byte) (data[row + i] | FACE_UP);
+            hash ^= Zobrist.card(i, end - start, card);
+            data[RUN_LENGTH + i] = (byte) runLengthAfterAdding(i, end == start ? -1 : data[end - 1], card, 1);
+            System.arraycopy(data, start, data, start + i, end - start);
+            data[end + i] = card;
+            data[COLUMN_END + i] += i + 1;
+        }
+        Arrays.fill(data, row, row + NUMBER_OF_COLUMNS, (byte) 0);
+        data[STOCK_ROWS] = (byte) (rows - 1);
+        hash ^= Zobrist.stockRows(rows) ^ Zobrist.stockRows(rows - 1);
+    }
+
+    /**
+     * Put back the top card of each column on the stock, the reverse of {@link #dealRow()}
+     */
+    public void undealRow() {
+        int rows = data[STOCK_ROWS] + 1;
+        int row = CARDS + CARDS_SIZE - rows * NUMBER_OF_COLUMNS;
+        int start = CARDS;
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            int end = end(i);
+            hash ^= Zobrist.card(i, end - start - 1, data[end - 1]);
+            data[row + i] = (byte) (data[end - 1] & ~FACE_UP);
+            System.arraycopy(data, start, data, start - i, end - start - 1);
+            data[COLUMN_END + i] -= i + 1;
+            start = end;
+        }
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            cardsRemoved(i, 1);
+        }
+        int tableauEnd = CARDS + numberOfCardsInTableau();
+        Arrays.fill(data, tableauEnd, tableauEnd + NUMBER_OF_COLUMNS, (byte) 0);
+        data[STOCK_ROWS] = (byte) rows;
+        hash ^= Zobrist.stockRows(rows - 1) ^ Zobrist.stockRows(rows);
+    }
+
+    /**
+     * Get the number of completed runs removed from the tableau
+     *
+     * @return completed runs [0, 8]
+     */
+    public int getNumberOfCompletedRuns() {
+        return data[COMPLETED_RUNS];
+    }
+
+    /**
+     * Get the suit of a completed run
+     *
+     * @param index index of the run, in order of completion
+     * @return suit of the run
+     */
+    public int getCompletedRunSuit(int index) {
+        return data[RUN_SUITS + index];
+    }
+
+    /**
+     * Remove the 13 cards on top of a column as a completed run
+     *
+     * @param column column index
+     */
+    public void removeRun(int column) {
+        int completed = data[COMPLETED_RUNS];
+        int suit = suitOf(data[end(column) - 1]);
+        int count = countCompletedRuns(suit);
+        hash ^= Zobrist.completedRuns(suit, count) ^ Zobrist.completedRuns(suit, count + 1);
+        data[RUN_SUITS + completed] = (byte) suit;
+        data[COMPLETED_RUNS] = (byte) (completed + 1);
+        pop(column, 13);
+    }
+
+    /**
+     * Count the completed runs of a suit
+     */
+    private int countCompletedRuns(int suit) {
+        int count = 0;
+        for (int i = 0; i < data[COMPLETED_RUNS]; i++) {
+            if (data[RUN_SUITS + i] == suit)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Put back the last completed run on top of a column, the reverse of {@link #removeRun(int)}
+     *
+     * @param column column index
+     */
+    public void restoreRun(int column) {
+        int completed = data[COMPLETED_RUNS] - 1;
+        int suit = data[RUN_SUITS + completed];
+        data[RUN_SUITS + completed] = 0;
+        data[COMPLETED_RUNS] = (byte) completed;
+        int count = countCompletedRuns(suit);
+        hash ^= Zobrist.completedRuns(suit, count + 1) ^ Zobrist.completedRuns(suit, count);
+        for (int value = 13; value > 0; value--) {
+            push(column, (byte) (cardCode(suit, value) | FACE_UP));
+        }
+    }
+
+    /**
+     * Write the compact form of the position: the remaining deals, the number of
+     * completed runs and their suits, the number of cards of each column, the cards
+     * of the columns from bottom to top and the cards of the stock rows, the next
+     * to deal first. The run lengths, the face down counts and the hash are not
+     * written, as they are computed again when the position is read.
+     *
+     * @param buffer buffer where to write, with at least {@link #MAX_ENCODED_SIZE} bytes remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(data[STOCK_ROWS]);
+        buffer.put(data[COMPLETED_RUNS]);
+        buffer.put(data, RUN_SUITS, data[COMPLETED_RUNS]);
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            buffer.put((byte) numberOfCards(i));
+        }
+        buffer.put(data, CARDS, numberOfCardsInTableau());
+        for (int row = data[STOCK_ROWS] - 1; row >= 0; row--) {
+            for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
+                buffer.put(getStockCard(row, column));
+            }
+        }
+    }
+
+    /**
+     * Read a position in the compact form written by {@link #writeTo(ByteBuffer)}
+     *
+     * @param buffer buffer where to read
+     * @return the position
+     * @throws IllegalArgumentException if the position is not valid
+     * @throws java.nio.BufferUnderflowException if the position is truncated
+     */
+    public static Position readFrom(ByteBuffer buffer) {
+        Position position = new Position();
+        byte[] data = position.data;
+        int rows = buffer.get();
+        int runs = buffer.get();
+        if (rows < 0 || rows > NUMBER_OF_DEALS || runs < 0 || runs > RUNS_TO_WIN)
+            throw new IllegalArgumentException("Invalid number of remaining deals or completed runs");
+        data[STOCK_ROWS] = (byte) rows;
+        data[COMPLETED_RUNS] = (byte) runs;
+        for (int i = 0; i < runs; i++) {
+            int suit = buffer.get();
+            if (suit < 0 || suit > 3)
+                throw new IllegalArgumentException("Invalid suit of a completed run");
+            data[RUN_SUITS + i] = (byte) suit;
+        }
+
+        int total = 0;
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            int count = buffer.get();
+            if (count < 0)
+                throw new IllegalArgumentException("Invalid number of cards in a column");
+            total += count;
+            data[COLUMN_END + i] = (byte) total;
+        }
+        if (total + rows * NUMBER_OF_COLUMNS + runs * 13 != NUMBER_OF_CARDS)
+            throw new IllegalArgumentException("Invalid number of cards");
+
+        buffer.get(data, CARDS, total);
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            int start = position.start(i);
+            int end = position.end(i);
+            int faceDown = 0;
+            while (start + faceDown < end && !isFaceUp(data[start + faceDown]))
+                faceDown++;
+            for (int j = start; j < end; j++) {
+                if (data[j] < 0 || (data[j] & ~FACE_UP) >= 52 || (j >= start + faceDown) != isFaceUp(data[j]))
+                    throw new IllegalArgumentException("Invalid card in column " + i);
+            }
+            data[FACE_DOWN + i] = (byte) faceDown;
+            position.updateRunLength(i);
+        }
+        for (int row = rows - 1; row >= 0; row--) {
+            for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
+                byte card = buffer.get();
+                if (card < 0 || card >= 52)
+                    throw new IllegalArgumentException("Invalid card in the stock");
+                data[CARDS + CARDS_SIZE - (row + 1) * NUMBER_OF_COLUMNS + column] = card;
+            }
+        }
+        position.hash = position.computeHash();
+        return position;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Position && Arrays.equals(data, ((Position) o).data);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < NUMBER_OF_COLUMNS; i++) {
+            stringBuilder.append(i).append(':');
+            for (int j = 0; j < numberOfCards(i); j++) {
+                byte card = getCard(i, j);
+                stringBuilder.append(' ').append(isFaceUp(card) ? "" : "#").append(suitOf(card)).append('/').append(valueOf(card));
+            }
+            stringBuilder.append('\n');
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,366 @@
+package it.alerighi.spider;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exact solver: searches all the positions reachable from a game to find if it can
+ * be won, and with which moves.
+ * <p>
+ * The search is a depth first search over the canonical moves of {@link Game},
+ * see {@link Game#generateCanonicalMoves(int[])}, run on a {@link ForkJoinPool}.
+ * The moves it skips only shuffle cards, without turning one, emptying a column
+ * or completing a run. When the pool is running out of work, a task gives the
+ * moves it has still to try to new tasks, each with its own copy of the game. All
+ * the tasks share a {@link TranspositionTable}, so no position is searched twice.
+ * The search stops when a win is found or the node or time budget is over.
+ *
+ * @author Alessandro Righi
+ */
+public final class Solver {
+
+    /**
+     * nodes searched by a task between two checks of the budget
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * a task splits its work when the pool has less queued tasks than this
+     */
+    private static final int SPLIT_THRESHOLD = 2;
+
+    public enum Status {
+        /**
+         * the game can be won, the solution contains the moves
+         */
+        WON,
+        /**
+         * all the positions were searched, the game can't be won
+         */
+        LOST,
+        /**
+         * the budget is over before the search ended
+         */
+        UNKNOWN
+    }
+
+    /**
+     * Result of a search
+     */
+    public static final class Result {
+        public final Status status;
+        /**
+         * moves to win, encoded as in {@link Game#doMove(int)}, empty if not won
+         */
+        public final int[] solution;
+        public final long nodes;
+        public final long milliseconds;
+        public final int threads;
+
+        Result(Status status, int[] solution, long nodes, long milliseconds, int threads) {
+            this.status = status;
+            this.solution = solution;
+            this.nodes = nodes;
+            this.milliseconds = milliseconds;
+            this.threads = threads;
+        }
+
+        /**
+         * Get the search speed
+         *
+         * @return nodes searched per second
+         */
+        public double nodesPerSecond() {
+            return nodes * 1000.0 / Math.max(1, milliseconds);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s in %d moves, %d nodes, %d ms, %.0f nodes/s, %d threads",
+                    status, solution.length, nodes, milliseconds, nodesPerSecond(), threads);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final long maxNodes;
+    private final long maxMilliseconds;
+
+    /**
+     * table of the visited positions, cleared at each search
+     */
+    private final TranspositionTable table;
+
+    /**
+     * Create a solver
+     *
+     * @param threads         number of threads of the search
+     * @param maxNodes        maximum number of positions to search
+     * @param maxMilliseconds maximum time of the search
+     * @param tableBits       log2 of the number of slots of the transposition table
+     */
+    public Solver(int threads, long maxNodes, long maxMilliseconds, int tableBits) {
+        this(threads, maxNodes, maxMilliseconds, tableBits, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Create a solver whose threads run with a priority
+     *
+     * @param threads         number of threads of the search
+     * @param maxNodes        maximum number of positions to search
+     * @param maxMilliseconds maximum time of the search
+     * @param tableBits       log2 of the number of slots of the transposition table
+     * @param priority        priority of the threads, see {@link Thread#setPriority(int)}
+     */
+    public Solver(int threads, long maxNodes, long maxMilliseconds, int tableBits, int priority) {
+        this.pool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setPriority(priority);
+            return worker;
+        }, null, false);
+        this.threads = threads;
+        this.maxNodes = maxNodes;
+        this.maxMilliseconds = maxMilliseconds;
+        this.table = new TranspositionTable(tableBits);
+    }
+
+    /**
+     * Search a game from its current position. The game is not modified. A solver
+     * does one search at a time.
+     *
+     * @param game game to solve
+     * @return result of the search
+     */
+    public Result solve(Game game) {
+        table.clear();
+        Search search = new Search(table, System.currentTimeMillis() + maxMilliseconds);
+        long start = System.nanoTime();
+        if (game.isEnded()) {
+            search.solution.set(new int[0]);
+        } else {
+            search.table.add(game.getHash());
+            search.pending.incrementAndGet();
+            pool.execute(new SearchTask(search, new Game(game), new int[0]));
+            /* the caller only waits: a task run outside the pool would fork into the common pool */
+            try {
+                while (!search.finished.await(10, TimeUnit.MILLISECONDS)) {
+                    search.checkBudget();
+                }
+            } catch (InterruptedException e) {
+                search.stop = true;
+                Thread.currentThread().interrupt();
+            }
+        }
+        long milliseconds = (System.nanoTime() - start) / 1000000;
+
+        int[] solution = search.solution.get();
+        Status status = solution != null ? Status.WON : search.stop ? Status.UNKNOWN : Status.LOST;
+        return new Result(status, solution != null ? solution : new int[0], search.nodes.sum(), milliseconds, threads);
+    }
+
+    /**
+     * Stop the threads of the solver
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * State shared by the tasks of a search
+     */
+    private final class Search {
+        final TranspositionTable table;
+        final long deadline;
+        final LongAdder nodes = new LongAdder();
+        final AtomicReference<int[]> solution = new AtomicReference<>();
+        final AtomicInteger pending = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean stop;
+
+        Search(TranspositionTable table, long deadline) {
+            this.table = table;
+            this.deadline = deadline;
+        }
+
+        void checkBudget() {
+            if (nodes.sum() >= maxNodes || System.currentTimeMillis() >= deadline)
+                stop = true;
+        }
+
+        void taskDone() {
+            if (pending.decrementAndGet() == 0)
+                finished.countDown();
+        }
+    }
+
+    /**
+     * Task that searches the positions reachable from a game
+     */
+    private static final class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+        private final Game game;
+
+        /**
+         * moves from the position of the search to the position of the game
+         */
+        private final int[] path;
+
+        /**
+         * moves to try, of all the levels of the search
+         */
+        private int[] moves = new int[Game.MAX_MOVES * 4];
+
+        /**
+         * for each level, index in moves of the next move to try and of the end of its moves
+         */
+        private int[] next = new int[64];
+        private int[] end = new int[64];
+
+        SearchTask(Search search, Game game, int[] path) {
+            this.search = search;
+            this.game = game;
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                search();
+            } finally {
+                search.taskDone();
+            }
+        }
+
+        private void search() {
+            int level = 0;
+            expand(level, 0);
+            long nodes = 0;
+
+            while (level >= 0 && !search.stop) {
+                if (next[level] == end[level]) {
+                    /* all the moves of this level tried */
+                    level--;
+                    if (level >= 0)
+                        game.undoLastMove();
+                    continue;
+                }
+
+                if (end[level] - next[level] > 1 && getSurplusQueuedTaskCount() < SPLIT_THRESHOLD) {
+                    split(level);
+                    continue;
+                }
+
+                int move = moves[next[level]++];
+                game.doMove(move);
+                if (++nodes == CHECK_INTERVAL) {
+                    search.nodes.add(nodes);
+                    search.checkBudget();
+                    nodes = 0;
+                }
+
+                if (game.isEnded()) {
+                    search.solution.compareAndSet(null, line(level + 1));
+                    search.stop = true;
+                } else if (search.table.add(game.getHash())) {
+                    level++;
+                    expand(level, end[level - 1]);
+                } else {
+                    game.undoLastMove();
+                }
+            }
+            search.nodes.add(nodes);
+        }
+
+        /**
+         * Generate the moves of the current position in a new level, dealing last
+         */
+        private void expand(int level, int start) {
+            if (level == next.length) {
+                next = Arrays.copyOf(next, level * 2);
+                end = Arrays.copyOf(end, level * 2);
+            }
+            if (moves.length < start + Game.MAX_MOVES + 1)
+                moves = Arrays.copyOf(moves, moves.length * 2);
+
+            int n = game.generateCanonicalMoves(moves, start);
+            if (game.canDeal())
+                moves[start + n++] = Game.DEAL_CARDS;
+            next[level] = start;
+            end[level] = start + n;
+        }
+
+        /**
+         * Give the moves still to try of the current level, but the next one, to new tasks
+         */
+        private void split(int level) {
+            int[] line = line(level);
+            while (next[level] < end[level] - 1) {
+                Game copy = new Game(game);
+                int move = moves[--end[level]];
+                copy.doMove(move);
+                if (copy.isEnded()) {
+                    search.solution.compareAndSet(null, append(line, move));
+                    search.stop = true;
+                } else if (search.table.add(copy.getHash())) {
+                    search.pending.incrementAndGet();
+                    new SearchTask(search, copy, append(line, move)).fork();
+                }
+            }
+        }
+
+        /**
+         * Get the moves from the position of the search to a level
+         */
+        private int[] line(int level) {
+            int[] line = Arrays.copyOf(path, path.length + level);
+            for (int i = 0; i < level; i++) {
+                line[path.length + i] = moves[next[i] - 1];
+            }
+            return line;
+        }
+
+        private static int[] append(int[] line, int move) {
+            int[] result = Arrays.copyOf(line, line.length + 1);
+            result[line.length] = move;
+            return result;
+        }
+    }
+
+    /**
+     * Solve a game with an increasing number of threads, to measure how the search scales.
+     * Arguments: number of suits, deal seed, maximum nodes, maximum seconds.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int suits = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        long maxNodes = args.length > 2 ? Long.parseLong(args[2]) : 20000000;
+        long maxSeconds = args.length > 3 ? Long.parseLong(args[3]) : 10;
+
+        Game game = new Game();
+        game.newGame(suits, seed);
+
+        double baseline = 0;
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+            Solver solver = new Solver(threads, maxNodes, maxSeconds * 1000, 24);
+            Result result = solver.solve(game);
+            solver.shutdown();
+            if (threads == 1)
+                baseline = result.nodesPerSecond();
+            System.out.println(result + String.format(", speedup %.2f", result.nodesPerSecond() / baseline));
+            if (threads == processors)
+                break;
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package it.alerighi.spider;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 /**
  * Main game window
- * <p>
- * TODO: implement high score saving
  *
  * @author Alessandro Righi
  */
@@ -23,24 +27,42 @@ public final class Spider extends JFrame {
     private static final String WIN_TITLE = APPLICATION_NAME + " v" + APPLICATION_VERSION;
     private static final int DEFAULT_WIN_WIDTH = 1500;
     private static final int DEFAULT_WIN_HEIGHT = 800;
-    private static final Image WIN_ICON_IMAGE;
 
-    private final GamePanel gamePanel = new GamePanel();
+    /**
+     * directory of the statistics and of the deal database
+     */
+    private static final Path DATA_DIRECTORY = Paths.get(System.getProperty("user.home"), ".spider");
 
-    static {
-        Image img = null;
-        try {
-            img = ImageIO.read(Spider.class.getResourceAsStream("spider.png"));
-        } catch (IOException e) {
-            logger.severe("Cannot load game icon");
-        }
-        WIN_ICON_IMAGE = img;
-    }
+    private final GamePanel gamePanel;
+
+    /**
+     * statistics of the games, null if they can't be opened
+     */
+    private final Statistics statistics;
+
+    /**
+     * outcomes of the deals solved, null if it can't be opened
+     */
+    private final DealDatabase dealDatabase;
+
+    /**
+     * winnable deals ready to play, null if none
+     */
+    private final DealPool dealPool;
 
-    public Spider() {
+    /**
+     * chooser of the saved games, that remembers the last directory
+     */
+    private final JFileChooser fileChooser = new JFileChooser();
+
+    public Spider(Statistics statistics, DealDatabase dealDatabase, DealPool dealPool) {
+        this.statistics = statistics;
+        this.dealDatabase = dealDatabase;
+        this.dealPool = dealPool;
+        gamePanel = new GamePanel(statistics);
         setTitle(WIN_TITLE);
         setSize(DEFAULT_WIN_WIDTH, DEFAULT_WIN_HEIGHT);
-        setIconImage(WIN_ICON_IMAGE);
+        CardImages.whenLoaded(() -> setIconImage(CardImages.getIcon()));
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         setJMenuBar(buildMenuBar());
         setContentPane(gamePanel);
@@ -51,7 +73,8 @@ public final class Spider extends JFrame {
     }
 
     /**
-     * Show new game dialog
+     * Show new game dialog, to choose the number of suits and optionally the game
+     * number or the difficulty of a winnable deal from the pool
      */
     private boolean showNewGameDialog() {
         logger.info("prompting game mode selection");
@@ -60,15 +83,124 @@ public final class Spider extends JFrame {
                 "2 suits (medium)",
                 "4 suits (hard)"
         };
+        final String[] DEALS = {
+                "Random",
+                "Easy, winnable",
+                "Normal, winnable",
+                "Hard, winnable"
+        };
+
+        JComboBox<String> modes = new JComboBox<>(GAME_MODES);
+        modes.setSelectedIndex(2);
+        JComboBox<String> deals = new JComboBox<>(DEALS);
+        deals.setEnabled(dealPool != null);
+        JTextField gameNumber = new JTextField(10);
+        JLabel outcome = new JLabel(" ");
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel("Choose game difficulty"));
+        panel.add(modes);
+        panel.add(new JLabel("Deal"));
+        panel.add(deals);
+        panel.add(new JLabel("Game number (empty for a random game)"));
+        panel.add(gameNumber);
+        panel.add(outcome);
+
+        Runnable showOutcome = () -> outcome.setText(describeDeal(
+                Character.getNumericValue(((String) modes.getSelectedItem()).charAt(0)),
+                deals.getSelectedIndex(), gameNumber.getText()));
+        modes.addActionListener(a -> showOutcome.run());
+        deals.addActionListener(a -> showOutcome.run());
+        gameNumber.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                showOutcome.run();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                showOutcome.run();
+            }
 
-        String selection = (String) JOptionPane.showInputDialog(null, "Choose game difficulty",
-                "New Game", JOptionPane.PLAIN_MESSAGE, null, GAME_MODES, GAME_MODES[2]);
-        if (selection == null)
-            return false;
-        int suits = Character.getNumericValue(selection.charAt(0));
-        logger.info("starting new game with " + suits + " suits");
-        gamePanel.startNewGame(suits);
-        return true;
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                showOutcome.run();
+            }
+        });
+
+        while (true) {
+            int option = JOptionPane.showConfirmDialog(null, panel, "New Game",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (option != JOptionPane.OK_OPTION)
+                return false;
+            int suits = Character.getNumericValue(((String) modes.getSelectedItem()).charAt(0));
+            String number = gameNumber.getText().trim();
+            if (number.startsWith("#"))
+                number = number.substring(1);
+            if (number.isEmpty() && deals.getSelectedIndex() == 0) {
+                gamePanel.startNewGame(suits);
+                return true;
+            }
+            if (number.isEmpty()) {
+                DealPool.Difficulty difficulty = DealPool.Difficulty.values()[deals.getSelectedIndex() - 1];
+                long seed = dealPool.take(suits, difficulty);
+                if (seed >= 0) {
+                    gamePanel.startNewGame(suits, seed);
+                    return true;
+                }
+                JOptionPane.showMessageDialog(null, dealPool.isFilling(suits, difficulty)
+                                ? "No deal of this difficulty is ready yet, try again later"
+                                : "No deal of this difficulty was found, choose another one",
+                        "New Game", JOptionPane.INFORMATION_MESSAGE);
+                continue;
+            }
+            try {
+                long seed = Long.parseLong(number);
+                if (seed >= 0) {
+                    gamePanel.startNewGame(suits, seed);
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+                logger.info("invalid game number " + number);
+            }
+            JOptionPane.showMessageDialog(null, "The game number must be a non-negative number",
+                    "New Game", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Describe the deal chosen: the outcome of a game number found in the deal
+     * database, or the deals of a difficulty ready in the pool
+     *
+     * @param suits  number of suits of the deal
+     * @param deal   index of the deal chosen, 0 for random and then the difficulties
+     * @param number game number, as typed
+     * @return description, a space if there is nothing to tell
+     */
+    private String describeDeal(int suits, int deal, String number) {
+        number = number.trim();
+        if (number.startsWith("#"))
+            number = number.substring(1);
+        if (number.isEmpty() && deal > 0 && dealPool != null) {
+            DealPool.Difficulty difficulty = DealPool.Difficulty.values()[deal - 1];
+            int available = dealPool.available(suits, difficulty);
+            if (available == 0)
+                return dealPool.isFilling(suits, difficulty) ? "No deal ready yet" : "No deal of this difficulty found";
+            return available + (available == 1 ? " deal ready" : " deals ready");
+        }
+        if (dealDatabase == null || number.isEmpty())
+            return " ";
+        long seed;
+        try {
+            seed = Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return " ";
+        }
+        Solver.Status status = dealDatabase.getStatus(suits, seed);
+        if (status == Solver.Status.WON)
+            return "This deal is known winnable, in " + dealDatabase.getNumberOfMoves(suits, seed) + " moves";
+        if (status == Solver.Status.LOST)
+            return "This deal is known unwinnable";
+        return " ";
     }
 
     /**
@@ -99,21 +231,173 @@ public final class Spider extends JFrame {
         gameMenu.add(itemNewGame);
         gameMenu.addSeparator();
 
-        JMenuItem itemSaveGame = new JMenuItem("Deal numberOfCards");
-        itemSaveGame.addActionListener(a -> gamePanel.dealCards());
+        JMenuItem itemSaveGame = new JMenuItem("Save Game...");
+        itemSaveGame.addActionListener(a -> saveGame());
         gameMenu.add(itemSaveGame);
 
-        JMenuItem itemLoadGame = new JMenuItem("Hint");
-        itemLoadGame.addActionListener(a -> gamePanel.getHint());
+        JMenuItem itemLoadGame = new JMenuItem("Load Game...");
+        itemLoadGame.addActionListener(a -> loadGame());
         gameMenu.add(itemLoadGame);
 
+        JMenuItem itemCopyShareCode = new JMenuItem("Copy Share Code");
+        itemCopyShareCode.addActionListener(a -> copyShareCode());
+        gameMenu.add(itemCopyShareCode);
+
+        JMenuItem itemOpenShareCode = new JMenuItem("Open Share Code...");
+        itemOpenShareCode.addActionListener(a -> openShareCode());
+        gameMenu.add(itemOpenShareCode);
+        gameMenu.addSeparator();
+
+        JMenuItem itemDealCards = new JMenuItem("Deal Cards");
+        itemDealCards.addActionListener(a -> gamePanel.dealCards());
+        gameMenu.add(itemDealCards);
+
+        JMenuItem itemHint = new JMenuItem("Hint");
+        itemHint.addActionListener(a -> gamePanel.getHint());
+        gameMenu.add(itemHint);
+
+        JMenuItem itemStatistics = new JMenuItem("Statistics...");
+        itemStatistics.addActionListener(a -> showStatistics());
+        itemStatistics.setEnabled(statistics != null);
+        gameMenu.add(itemStatistics);
+        gameMenu.addSeparator();
+
+        JCheckBoxMenuItem itemLookaheadHints = new JCheckBoxMenuItem("Lookahead hints", true);
+        itemLookaheadHints.addActionListener(a -> gamePanel.setLookaheadHints(itemLookaheadHints.isSelected()));
+        gameMenu.add(itemLookaheadHints);
+
+        JCheckBoxMenuItem itemWinEstimates = new JCheckBoxMenuItem("Estimate win probability", true);
+        itemWinEstimates.addActionListener(a -> gamePanel.setWinEstimates(itemWinEstimates.isSelected()));
+        gameMenu.add(itemWinEstimates);
+
         menuBar.add(gameMenu);
         return menuBar;
     }
 
+    /**
+     * Ask for a file and save the game to it
+     */
+    private void saveGame() {
+        if (!gamePanel.isGameStarted())
+            return;
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        File file = fileChooser.getSelectedFile();
+        if (file.exists() && JOptionPane.showConfirmDialog(this, "Replace " + file.getName() + "?",
+                "Save Game", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION)
+            return;
+        reportFailure(gamePanel.saveGame(file.toPath()), "Save Game", "Cannot save the game");
+    }
+
+    /**
+     * Ask for a file and load the game in it
+     */
+    private void loadGame() {
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        reportFailure(gamePanel.loadGame(fileChooser.getSelectedFile().toPath()), "Load Game", "Cannot load the game");
+    }
+
+    /**
+     * Copy the share code of the position to the clipboard
+     */
+    private void copyShareCode() {
+        String shareCode = gamePanel.getShareCode();
+        if (shareCode == null)
+            return;
+        try {
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(shareCode), null);
+        } catch (IllegalStateException e) {
+            logger.warning("Clipboard not available: " + e.getMessage());
+        }
+        JTextField field = new JTextField(shareCode, 40);
+        field.setEditable(false);
+        JOptionPane.showMessageDialog(this, field, "Share Code", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /**
+     * Ask for a share code and open its position
+     */
+    private void openShareCode() {
+        String shareCode = JOptionPane.showInputDialog(this, "Share code", "Open Share Code", JOptionPane.PLAIN_MESSAGE);
+        if (shareCode == null || shareCode.trim().isEmpty())
+            return;
+        reportFailure(gamePanel.openShareCode(shareCode), "Open Share Code", "Invalid share code");
+    }
+
+    /**
+     * Show the statistics of the games, for each number of suits
+     */
+    private void showStatistics() {
+        final String[] ROWS = {
+                "Games played", "Games won", "Win rate", "Best score", "Fewest moves",
+                "Fastest win", "Current streak", "Longest winning streak", "Longest losing streak"
+        };
+        final int[] SUITS = {1, 2, 4};
+
+        JPanel panel = new JPanel(new GridLayout(0, SUITS.length + 1, 20, 4));
+        panel.add(new JLabel());
+        for (int suits : SUITS) {
+            panel.add(new JLabel(suits == 1 ? "1 suit" : suits + " suits"));
+        }
+        for (int row = 0; row < ROWS.length; row++) {
+            panel.add(new JLabel(ROWS[row]));
+            for (int suits : SUITS) {
+                panel.add(new JLabel(formatStatistic(statistics.getSummary(suits), row)));
+            }
+        }
+        JOptionPane.showMessageDialog(this, panel, "Statistics", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private static String formatStatistic(Statistics.Summary summary, int row) {
+        boolean won = summary.getWon() > 0;
+        switch (row) {
+            case 0:
+                return Integer.toString(summary.getPlayed());
+            case 1:
+                return Integer.toString(summary.getWon());
+            case 2:
+                return summary.getPlayed() == 0 ? "-" : summary.getWon() * 100 / summary.getPlayed() + "%";
+            case 3:
+                return won ? Integer.toString(summary.getBestScore()) : "-";
+            case 4:
+                return won ? Integer.toString(summary.getFewestMoves()) : "-";
+            case 5:
+                int seconds = summary.getFastestWin() / 1000;
+                return won ? String.format("%d:%02d", seconds / 60, seconds % 60) : "-";
+            case 6:
+                int streak = summary.getCurrentStreak();
+                return streak > 0 ? streak + " won" : streak < 0 ? -streak + " lost" : "-";
+            case 7:
+                return Integer.toString(summary.getLongestWinningStreak());
+            default:
+                return Integer.toString(summary.getLongestLosingStreak());
+        }
+    }
+
+    /**
+     * Show an error message if a command fails
+     *
+     * @param result  result of the command
+     * @param title   title of the message
+     * @param message message to show, followed by the cause
+     */
+    private void reportFailure(CompletableFuture<Void> result, String title, String message) {
+        result.whenComplete((ignored, error) -> {
+            if (error == null)
+                return;
+            logger.warning(message + ": " + error);
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    message + ": " + error.getMessage(), title, JOptionPane.ERROR_MESSAGE));
+        });
+    }
+
     public static void main(String args[]) {
         logger.info(APPLICATION_NAME + " version " + APPLICATION_VERSION + " (c) 2016-2018 Alessandro Righi");
 
+        /* the images are loaded while the window is created */
+        CardImages.load();
+
         /* set propriety to use system menu bar on MacOS */
         if (IS_MAC) {
             System.setProperty("apple.awt.application.name", Spider.APPLICATION_NAME);
@@ -126,6 +410,30 @@ public final class Spider extends JFrame {
             logger.warning("Cannot set UI system look and feel");
         }
 
-        new Spider();
+        Statistics statistics = null;
+        try {
+            statistics = Statistics.open(DATA_DIRECTORY);
+            Runtime.getRuntime().addShutdownHook(new Thread(statistics::close, "statistics-close"));
+        } catch (IOException e) {
+            logger.severe("Cannot open the statistics, the results will not be saved: " + e);
+        }
+
+        DealDatabase dealDatabase = null;
+        try {
+            dealDatabase = DealDatabase.open(DATA_DIRECTORY);
+            Runtime.getRuntime().addShutdownHook(new Thread(dealDatabase::close, "deal-database-close"));
+        } catch (IOException e) {
+            logger.severe("Cannot open the deal database: " + e);
+        }
+
+        DealPool dealPool = null;
+        try {
+            dealPool = DealPool.open(DATA_DIRECTORY, dealDatabase);
+            Runtime.getRuntime().addShutdownHook(new Thread(dealPool::close, "deal-pool-close"));
+        } catch (IOException e) {
+            logger.severe("Cannot open the deal pool: " + e);
+        }
+
+        new Spider(statistics, dealDatabase, dealPool);
     }
 }
@@ -0,0 +1,466 @@
+package it.alerighi.spider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Statistics of the games played, for each number of suits, kept on disk.
+ * <p>
+ * The result of each game is appended to a journal of fixed size records, each
+ * with a sequence number and a checksum, and the journal is forced to disk at most
+ * once every {@link #FORCE_DELAY} milliseconds, so that ending a game costs one
+ * small write. When the journal has {@link #COMPACT_THRESHOLD} records, the
+ * statistics are written to a snapshot, that replaces the previous one with an
+ * atomic move, and the journal is emptied. Opening the store reads the snapshot and
+ * the records of the journal not in the snapshot, at most a few thousand bytes.
+ * <p>
+ * A crash while writing leaves at most a partial record at the end of the
+ * journal, that fails its checksum and is discarded. A crash during a compaction
+ * leaves either the old or the new snapshot, and the records of the journal
+ * already in the snapshot are skipped by their sequence number.
+ * <p>
+ * The statistics are read from memory, and the methods are thread safe.
+ *
+ * @author Alessandro Righi
+ */
+public final class Statistics {
+    private static final Logger logger = Logger.getGlobal();
+
+    static final String JOURNAL_NAME = "statistics.journal";
+    static final String SNAPSHOT_NAME = "statistics.snapshot";
+
+    private static final int JOURNAL_MAGIC = 0x5350534A; /* "SPSJ" */
+    private static final int SNAPSHOT_MAGIC = 0x53505353; /* "SPSS" */
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * size of a record: sequence, time, suits, won, moves, score, duration, checksum
+     */
+    private static final int RECORD_SIZE = 32;
+
+    /**
+     * number of records of the journal that triggers a compaction
+     */
+    static final int COMPACT_THRESHOLD = 1024;
+
+    /**
+     * maximum time a result stays only in the cache of the system, in milliseconds
+     */
+    static final int FORCE_DELAY = 1000;
+
+    /**
+     * numbers of suits of the games
+     */
+    private static final int[] SUITS = {1, 2, 4};
+
+    /**
+     * Statistics of the games with a number of suits
+     */
+    public static final class Summary {
+        private final int played;
+        private final int won;
+        private final int bestScore;
+        private final int fewestMoves;
+        private final int fastestWin;
+        private final int currentStreak;
+        private final int longestWinningStreak;
+        private final int longestLosingStreak;
+
+        private Summary(int played, int won, int bestScore, int fewestMoves, int fastestWin,
+                        int currentStreak, int longestWinningStreak, int longestLosingStreak) {
+            this.played = played;
+            this.won = won;
+            this.bestScore = bestScore;
+            this.fewestMoves = fewestMoves;
+            this.fastestWin = fastestWin;
+            this.currentStreak = currentStreak;
+            this.longestWinningStreak = longestWinningStreak;
+            this.longestLosingStreak = longestLosingStreak;
+        }
+
+        private static final Summary EMPTY = new Summary(0, 0, 0, 0, 0, 0, 0, 0);
+
+        /**
+         * Add the result of a game
+         *
+         * @return the statistics with the game
+         */
+        private Summary add(boolean win, int score, int moves, int duration) {
+            if (!win) {
+                int streak = Math.min(currentStreak, 0) - 1;
+                return new Summary(played + 1, won, bestScore, fewestMoves, fastestWin, streak,
+                        longestWinningStreak, Math.max(longestLosingStreak, -streak));
+            }
+            int streak = Math.max(currentStreak, 0) + 1;
+            return new Summary(played + 1, won + 1,
+                    won == 0 ? score : Math.max(bestScore, score),
+                    won == 0 ? moves : Math.min(fewestMoves, moves),
+                    won == 0 ? duration : Math.min(fastestWin, duration),
+                    streak, Math.max(longestWinningStreak, streak), longestLosingStreak);
+        }
+
+        private void writeTo(ByteBuffer buffer) {
+            buffer.putInt(played).putInt(won).putInt(bestScore).putInt(fewestMoves).putInt(fastestWin)
+                    .putInt(currentStreak).putInt(longestWinningStreak).putInt(longestLosingStreak);
+        }
+
+        private static Summary readFrom(ByteBuffer buffer) {
+            return new Summary(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                    buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+
+        /**
+         * Get the number of games played
+         *
+         * @return number of games
+         */
+        public int getPlayed() {
+            return played;
+        }
+
+        /**
+         * Get the number of games won
+         *
+         * @return number of games
+         */
+        public int getWon() {
+            return won;
+        }
+
+        /**
+         * Get the best score of a won game
+         *
+         * @return score, 0 if no game was won
+         */
+        public int getBestScore() {
+            return bestScore;
+        }
+
+        /**
+         * Get the fewest moves of a won game
+         *
+         * @return number of moves, 0 if no game was won
+         */
+        public int getFewestMoves() {
+            return fewestMoves;
+        }
+
+        /**
+         * Get the time of the fastest won game
+         *
+         * @return time in milliseconds, 0 if no game was won
+         */
+        public int getFastestWin() {
+            return fastestWin;
+        }
+
+        /**
+         * Get the current streak
+         *
+         * @return number of games won in a row, negative for games lost in a row
+         */
+        public int getCurrentStreak() {
+            return currentStreak;
+        }
+
+        /**
+         * Get the longest streak of games won
+         *
+         * @return number of games
+         */
+        public int getLongestWinningStreak() {
+            return longestWinningStreak;
+        }
+
+        /**
+         * Get the longest streak of games lost
+         *
+         * @return number of games
+         */
+        public int getLongestLosingStreak() {
+            return longestLosingStreak;
+        }
+    }
+
+    private final Path snapshotPath;
+    private final FileChannel journal;
+
+    /**
+     * statistics for 1, 2 and 4 suits, guarded by this
+     */
+    private final Summary[] summaries = {Summary.EMPTY, Summary.EMPTY, Summary.EMPTY};
+
+    /**
+     * sequence number of the last result, guarded by this
+     */
+    private long sequence;
+
+    /**
+     * number of records in the journal, guarded by this
+     */
+    private int journalRecords;
+
+    /**
+     * true if results were written but not forced to disk, guarded by this
+     */
+    private boolean forcePending;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * thread that forces the journal to disk and compacts it
+     */
+    private final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "statistics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Statistics(Path directory) throws IOException {
+        snapshotPath = directory.resolve(SNAPSHOT_NAME);
+        readSnapshot();
+        journal = FileChannel.open(directory.resolve(JOURNAL_NAME), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            readJournal();
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the statistics of a directory, creating it if it doesn't exist
+     *
+     * @param directory directory of the statistics
+     * @return the statistics
+     * @throws IOException if the statistics can't be read
+     */
+    public static Statistics open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new Statistics(directory);
+    }
+
+    /**
+     * Read the snapshot, if it exists
+     */
+    private void readSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath))
+            return;
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+        if (buffer.remaining() != snapshotSize() || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != VERSION)
+            throw new IOException("Invalid statistics snapshot");
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.limit() - 4);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4))
+            throw new IOException("Corrupted statistics snapshot");
+        sequence = buffer.getLong();
+        for (int i = 0; i < SUITS.length; i++) {
+            summaries[i] = Summary.readFrom(buffer);
+        }
+    }
+
+    private static int snapshotSize() {
+        return HEADER_SIZE + 8 + SUITS.length * 32 + 4;
+    }
+
+    /**
+     * Apply the records of the journal that are not in the snapshot, and cut the
+     * journal after the last valid record
+     */
+    private void readJournal() throws IOException {
+        long size = journal.size();
+        if (size < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(JOURNAL_MAGIC).putInt(VERSION);
+            header.flip();
+            journal.truncate(0);
+            journal.write(header, 0);
+            journal.force(false);
+            journal.position(HEADER_SIZE);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE - 8));
+        while (buffer.hasRemaining() && journal.read(buffer, buffer.position()) >= 0) {
+            /* read the whole journal */
+        }
+        buffer.flip();
+        if (buffer.getInt() != JOURNAL_MAGIC || buffer.getInt() != VERSION)
+            throw new IOException("Invalid statistics journal");
+
+        long end = HEADER_SIZE;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            int start = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), start, RECORD_SIZE - 4);
+            if ((int) crc.getValue() != buffer.getInt(start + RECORD_SIZE - 4))
+                break;
+            long recordSequence = buffer.getLong();
+            buffer.getLong(); /* time of the game */
+            int suits = buffer.get();
+            boolean win = buffer.get() != 0;
+            int moves = buffer.getShort() & 0xFFFF;
+            int score = buffer.getInt();
+            int duration = buffer.getInt();
+            buffer.getInt(); /* checksum */
+            if (recordSequence > sequence) {
+                int index = indexOf(suits);
+                if (index < 0 || recordSequence != sequence + 1)
+                    break;
+                summaries[index] = summaries[index].add(win, score, moves, duration);
+                sequence = recordSequence;
+            }
+            journalRecords++;
+            end = buffer.position();
+        }
+        if (end != size) {
+            logger.warning("Discarding " + (size - end) + " bytes at the end of the statistics journal");
+            journal.truncate(end);
+        }
+        journal.position(end);
+    }
+
+    private static int indexOf(int numberOfSuits) {
+        for (int i = 0; i < SUITS.length; i++) {
+            if (SUITS[i] == numberOfSuits)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the statistics of the games with a number of suits
+     *
+     * @param numberOfSuits number of suits
+     * @return statistics
+     */
+    public synchronized Summary getSummary(int numberOfSuits) {
+        int index = indexOf(numberOfSuits);
+        if (index < 0)
+            throw new IllegalArgumentException("Invalid number of suits: " + numberOfSuits);
+        return summaries[index];
+    }
+
+    /**
+     * Record the result of a game. The result is written at once, and forced to disk
+     * within {@link #FORCE_DELAY} milliseconds.
+     *
+     * @param numberOfSuits number of suits of the game
+     * @param win           true if the game was won
+     * @param score         final score
+     * @param moves         number of moves
+     * @param duration      duration of the game, in milliseconds
+     */
+    public synchronized void record(int numberOfSuits, boolean win, int score, int moves, long duration) {
+        int index = indexOf(numberOfSuits);
+        if (index < 0)
+            throw new IllegalArgumentException("Invalid number of suits: " + numberOfSuits);
+        moves = Math.min(moves, 0xFFFF);
+        int millis = (int) Math.min(duration, Integer.MAX_VALUE);
+        summaries[index] = summaries[index].add(win, score, moves, millis);
+        sequence++;
+
+        record.clear();
+        record.putLong(sequence).putLong(System.currentTimeMillis()).put((byte) numberOfSuits)
+                .put((byte) (win ? 1 : 0)).putShort((short) moves).putInt(score).putInt(millis);
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+        } catch (IOException e) {
+            logger.severe("Cannot write the statistics: " + e);
+            return;
+        }
+        journalRecords++;
+
+        if (journalRecords >= COMPACT_THRESHOLD) {
+            thread.execute(this::compact);
+        } else if (!forcePending) {
+            forcePending = true;
+            thread.schedule(this::force, FORCE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Force the results written to disk
+     */
+    private synchronized void force() {
+        if (!forcePending || !journal.isOpen())
+            return;
+        forcePending = false;
+        try {
+            journal.force(false);
+        } catch (IOException e) {
+            logger.severe("Cannot write the statistics: " + e);
+        }
+    }
+
+    /**
+     * Write the statistics to a new snapshot and empty the journal
+     */
+    private synchronized void compact() {
+        if (journalRecords < COMPACT_THRESHOLD || !journal.isOpen())
+            return;
+        ByteBuffer buffer = ByteBuffer.allocate(snapshotSize());
+        buffer.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putLong(sequence);
+        for (Summary summary : summaries) {
+            summary.writeTo(buffer);
+        }
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path temporary = snapshotPath.resolveSibling(SNAPSHOT_NAME + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            /* the records are in the snapshot, and skipped if the journal is not emptied */
+            journal.truncate(HEADER_SIZE);
+            journal.force(false);
+            journal.position(HEADER_SIZE);
+            journalRecords = 0;
+            forcePending = false;
+        } catch (IOException e) {
+            logger.severe("Cannot compact the statistics: " + e);
+        }
+    }
+
+    /**
+     * Force the results to disk and close the journal
+     */
+    public synchronized void close() {
+        if (!journal.isOpen())
+            return;
+        forcePending = true;
+        force();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.severe("Cannot close the statistics: " + e);
+        }
+        thread.shutdown();
+    }
+}
@@ -0,0 +1,96 @@
+package it.alerighi.spider;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free set of position hashes, shared by the threads of a search to avoid
+ * visiting the same position twice.
+ * <p>
+ * It is an open addressing table of {@link Position#getHash()} values, filled with
+ * compare-and-set and linear probing. When the probed slots are all taken the hash
+ * is not stored, so a full table makes the search slower but never wrong.
+ *
+ * @author Alessandro Righi
+ */
+public final class TranspositionTable {
+
+    private static final int MAX_PROBES = 16;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * Create a table
+     *
+     * @param bits log2 of the number of slots, each slot is 8 bytes
+     */
+    public TranspositionTable(int bits) {
+        if (bits < 4 || bits > 30)
+            throw new IllegalArgumentException("Table size must be between 2^4 and 2^30 slots!");
+        slots = new AtomicLongArray(1 << bits);
+        mask = (1 << bits) - 1;
+    }
+
+    /**
+     * Add a hash to the table, if not already present
+     *
+     * @param hash position hash
+     * @return true if the hash was not in the table
+     */
+    public boolean add(long hash) {
+        if (hash == 0)
+            hash = 1; /* 0 marks an empty slot */
+        int index = (int) (hash ^ hash >>> 32) & mask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = index + i & mask;
+            long value = slots.get(slot);
+            if (value == hash)
+                return false;
+            if (value == 0) {
+                if (slots.compareAndSet(slot, 0, hash))
+                    return true;
+                if (slots.get(slot) == hash)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if a hash is in the table
+     *
+     * @param hash position hash
+     * @return true if the hash is present
+     */
+    public boolean contains(long hash) {
+        if (hash == 0)
+            hash = 1;
+        int index = (int) (hash ^ hash >>> 32) & mask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            long value = slots.get(index + i & mask);
+            if (value == hash)
+                return true;
+            if (value == 0)
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * Remove all the hashes. Must not be called while the table is in use.
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.lazySet(i, 0);
+        }
+    }
+
+    /**
+     * Get the number of slots of the table
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return slots.length();
+    }
+}
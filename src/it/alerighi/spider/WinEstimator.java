@@ -0,0 +1,328 @@
+package it.alerighi.spider;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Monte Carlo estimator of the probability to win a game from its position.
+ * <p>
+ * Each playout deals the cards the player can't see, the face down cards of the
+ * columns and the stock, at random from the cards not yet seen, and plays the
+ * game to the end with a randomized {@link GreedyStrategy}. So the estimate never
+ * depends on the hidden cards of the real game, and it is the probability that
+ * the greedy strategy wins: a lower bound of the probability for a good player.
+ * <p>
+ * The playouts run on a pool of low priority threads. The estimate is published
+ * while it is refined, about every {@link #PUBLISH_INTERVAL} milliseconds, until
+ * its 95% confidence interval is narrower than {@link #TARGET_HALF_WIDTH} on
+ * each side or {@link #MAX_PLAYOUTS} playouts are done.
+ *
+ * @author Alessandro Righi
+ */
+public final class WinEstimator {
+
+    public static final int MAX_PLAYOUTS = 100000;
+    public static final double TARGET_HALF_WIDTH = 0.01;
+    public static final int PUBLISH_INTERVAL = 100;
+
+    /**
+     * playouts of a thread between two updates of the estimate
+     */
+    private static final int BATCH = 16;
+
+    /**
+     * moves that don't change the position value done before each deal in a playout
+     */
+    private static final int NEUTRAL_MOVES = 10;
+
+    /**
+     * z value of the 95% confidence interval
+     */
+    private static final double Z = 1.96;
+
+    /**
+     * Estimate of the probability to win
+     */
+    public static final class Estimate {
+        public final int playouts;
+        public final int wins;
+        /**
+         * true if the estimate will not be refined any more
+         */
+        public final boolean complete;
+
+        Estimate(int playouts, int wins, boolean complete) {
+            this.playouts = playouts;
+            this.wins = wins;
+            this.complete = complete;
+        }
+
+        /**
+         * Get the estimated probability to win
+         *
+         * @return probability, between 0 and 1
+         */
+        public double probability() {
+            return playouts == 0 ? 0 : (double) wins / playouts;
+        }
+
+        /**
+         * Get the lower bound of the 95% Wilson score interval
+         *
+         * @return lower bound
+         */
+        public double lower() {
+            return playouts == 0 ? 0 : Math.max(0, center() - halfWidth());
+        }
+
+        /**
+         * Get the upper bound of the 95% Wilson score interval
+         *
+         * @return upper bound
+         */
+        public double upper() {
+            return playouts == 0 ? 1 : Math.min(1, center() + halfWidth());
+        }
+
+        private double center() {
+            return (probability() + Z * Z / (2 * playouts)) / (1 + Z * Z / playouts);
+        }
+
+        private double halfWidth() {
+            double p = probability();
+            return Z * Math.sqrt(p * (1 - p) / playouts + Z * Z / (4.0 * playouts * playouts)) / (1 + Z * Z / playouts);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f%% (%.1f%% - %.1f%%), %d playouts",
+                    probability() * 100, lower() * 100, upper() * 100, playouts);
+        }
+    }
+
+    /**
+     * Deals of the hidden cards of a position, consistent with the cards seen
+     */
+    static final class Sampler {
+        private final int numberOfSuits;
+        private final int score;
+
+        /**
+         * compact form of the position, see {@link Position#writeTo(ByteBuffer)}
+         */
+        private final byte[] encoded;
+        private final int length;
+
+        /**
+         * indexes in the compact form of the hidden cards, and the cards not seen
+         */
+        private final int[] hidden;
+        private final byte[] unseen;
+
+        /**
+         * Create the sampler of a game
+         *
+         * @param game game, in the position to sample
+         */
+        Sampler(Game game) {
+            numberOfSuits = game.getNumberOfSuits();
+            score = game.getScore();
+            Position position = game.getPosition();
+            ByteBuffer buffer = ByteBuffer.allocate(Position.MAX_ENCODED_SIZE);
+            position.writeTo(buffer);
+            encoded = buffer.array();
+            length = buffer.position();
+
+            /* each card of a suit in play is in the game 8 / numberOfSuits times */
+            int[] count = new int[52];
+            for (int suit = 0; suit < numberOfSuits; suit++) {
+                for (int value = 1; value <= 13; value++) {
+                    count[Position.cardCode(suit, value)] = 8 / numberOfSuits;
+                }
+            }
+            for (int i = 0; i < position.getNumberOfCompletedRuns(); i++) {
+                for (int value = 1; value <= 13; value++) {
+                    count[Position.cardCode(position.getCompletedRunSuit(i), value)]--;
+                }
+            }
+
+            int cards = 2 + position.getNumberOfCompletedRuns() + Position.NUMBER_OF_COLUMNS;
+            int stock = cards + position.numberOfCardsInTableau();
+            int[] hidden = new int[length - cards];
+            int n = 0;
+            for (int i = cards; i < length; i++) {
+                if (i >= stock || !Position.isFaceUp(encoded[i]))
+                    hidden[n++] = i;
+                else
+                    count[encoded[i] & ~Position.FACE_UP]--;
+            }
+            this.hidden = Arrays.copyOf(hidden, n);
+            unseen = new byte[n];
+            int k = 0;
+            for (int card = 0; card < count.length; card++) {
+                for (int i = 0; i < count[card]; i++) {
+                    unseen[k++] = (byte) card;
+                }
+            }
+        }
+
+        /**
+         * Deal the hidden cards at random
+         *
+         * @param random source of randomness
+         * @param game   game where to put the position, with an empty move log
+         */
+        void sample(SplittableRandom random, Game game) {
+            byte[] deal = encoded.clone();
+            byte[] cards = unseen.clone();
+            for (int i = cards.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                byte card = cards[i];
+                cards[i] = cards[j];
+                cards[j] = card;
+            }
+            for (int i = 0; i < hidden.length; i++) {
+                /* the face down cards of the columns keep their face */
+                deal[hidden[i]] = (byte) (cards[i] | (deal[hidden[i]] & Position.FACE_UP));
+            }
+            game.restore(numberOfSuits, -1, score, Position.readFrom(ByteBuffer.wrap(deal, 0, length)), new int[0], 0);
+        }
+    }
+
+    /**
+     * Estimation of a position
+     */
+    private static final class Estimation {
+        final Sampler sampler;
+        final Consumer<Estimate> listener;
+
+        /**
+         * playouts in the high 32 bits and wins in the low 32 bits, updated together
+         */
+        final AtomicLong results = new AtomicLong();
+        final AtomicLong lastPublished = new AtomicLong(System.nanoTime());
+        final AtomicInteger running;
+        volatile boolean stop;
+
+        Estimation(Sampler sampler, Consumer<Estimate> listener, int threads) {
+            this.sampler = sampler;
+            this.listener = listener;
+            this.running = new AtomicInteger(threads);
+        }
+
+        /**
+         * Add the results of some playouts, and publish the estimate if it's time
+         *
+         * @return true if the estimation must go on
+         */
+        boolean add(int playouts, int wins) {
+            long total = results.addAndGet((long) playouts << 32 | wins);
+            Estimate estimate = new Estimate((int) (total >>> 32), (int) total, false);
+            boolean done = estimate.playouts >= MAX_PLAYOUTS
+                    || (estimate.upper() - estimate.lower()) / 2 <= TARGET_HALF_WIDTH;
+            if (done)
+                stop = true;
+            long now = System.nanoTime();
+            long last = lastPublished.get();
+            if (!stop && now - last >= PUBLISH_INTERVAL * 1000000L && lastPublished.compareAndSet(last, now))
+                listener.accept(estimate);
+            return !stop;
+        }
+
+        /**
+         * Called when a thread ends, the last one publishes the final estimate
+         */
+        void finished() {
+            if (running.decrementAndGet() == 0) {
+                long total = results.get();
+                listener.accept(new Estimate((int) (total >>> 32), (int) total, true));
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int threads;
+
+    /**
+     * estimation running, null if none
+     */
+    private Estimation current;
+
+    /**
+     * Create an estimator
+     *
+     * @param threads number of threads of the playouts
+     */
+    public WinEstimator(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is required");
+        this.threads = threads;
+        AtomicInteger index = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "estimator-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Start the estimation of a game, stopping the previous one. The listener is
+     * called by the threads of the estimator, with the estimate while it is refined,
+     * and with the complete estimate when it's done. If the estimation is stopped,
+     * only the complete estimate may still be published.
+     *
+     * @param game     game to estimate, that is copied
+     * @param listener receives the estimates
+     */
+    public synchronized void estimate(Game game, Consumer<Estimate> listener) {
+        cancel();
+        Estimation estimation = new Estimation(new Sampler(game), listener, threads);
+        current = estimation;
+        long seed = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            SplittableRandom random = new SplittableRandom(seed + i * 0x9E3779B97F4A7C15L);
+            executor.execute(() -> playouts(estimation, random));
+        }
+    }
+
+    /**
+     * Stop the estimation running, if any
+     */
+    public synchronized void cancel() {
+        if (current != null) {
+            current.stop = true;
+            current = null;
+        }
+    }
+
+    /**
+     * Run playouts until the estimation is stopped
+     */
+    private static void playouts(Estimation estimation, SplittableRandom random) {
+        try {
+            Game game = new Game();
+            int[] moves = new int[Game.MAX_MOVES];
+            GreedyStrategy strategy = new GreedyStrategy(random, NEUTRAL_MOVES);
+            do {
+                int wins = 0;
+                for (int i = 0; i < BATCH && !estimation.stop; i++) {
+                    estimation.sampler.sample(random, game);
+                    if (BotHarness.playToEnd(game, strategy, moves))
+                        wins++;
+                }
+                if (estimation.stop)
+                    break;
+                estimation.add(BATCH, wins);
+            } while (!estimation.stop);
+        } finally {
+            estimation.finished();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package it.alerighi.spider;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for the Zobrist hash of a {@link Position}. The hash is the xor of
+ * the keys of every card in the tableau (by column, index and card), of the number
+ * of face down cards of each column, of the number of stock rows and of the number
+ * of completed runs of each suit.
+ * <p>
+ * The keys are generated from a fixed seed, so the hash of a position is the same
+ * on every run and can be stored or exchanged. The key for a count of zero is
+ * always zero, so an empty position has hash zero.
+ *
+ * @author Alessandro Righi
+ */
+final class Zobrist {
+
+    private static final long SEED = 0x5D1DE2L;
+
+    /**
+     * keys of the cards for column 0, by index and card; the keys of the other
+     * columns are rotations of these
+     */
+    private static final long[] CARDS = new long[Position.NUMBER_OF_CARDS * 52];
+    private static final long[] FACE_DOWN = new long[Position.NUMBER_OF_CARDS + 1];
+    private static final long[] STOCK_ROWS = new long[Position.NUMBER_OF_DEALS + 1];
+    private static final long[] COMPLETED_RUNS = new long[4 * (Position.RUNS_TO_WIN + 1)];
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < CARDS.length; i++) {
+            CARDS[i] = random.nextLong();
+        }
+        for (int i = 1; i < FACE_DOWN.length; i++) {
+            FACE_DOWN[i] = random.nextLong();
+        }
+        for (int i = 1; i < STOCK_ROWS.length; i++) {
+            STOCK_ROWS[i] = random.nextLong();
+        }
+        for (int i = 0; i < COMPLETED_RUNS.length; i++) {
+            if (i % (Position.RUNS_TO_WIN + 1) != 0)
+                COMPLETED_RUNS[i] = random.nextLong();
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * Key of a card in the tableau
+     *
+     * @param column column index
+     * @param index  index of the card in the column
+     * @param card   card code, the face up bit is ignored
+     * @return key
+     */
+    static long card(int column, int index, int card) {
+        return Long.rotateLeft(CARDS[index * 52 + (card & ~Position.FACE_UP)], column * 6);
+    }
+
+    /**
+     * Key of the number of face down cards of a column
+     *
+     * @param column column index
+     * @param count  number of face down cards
+     * @return key
+     */
+    static long faceDown(int column, int count) {
+        return Long.rotateLeft(FACE_DOWN[count], column * 6);
+    }
+
+    /**
+     * Key of the number of stock rows to deal
+     *
+     * @param rows number of rows
+     * @return key
+     */
+    static long stockRows(int rows) {
+        return STOCK_ROWS[rows];
+    }
+
+    /**
+     * Key of the number of completed runs of a suit
+     *
+     * @param suit  suit of the runs
+     * @param count number of completed runs of the suit
+     * @return key
+     */
+    static long completedRuns(int suit, int count) {
+        return COMPLETED_RUNS[suit * (Position.RUNS_TO_WIN + 1) + count];
+    }
+}